@@ -48,4 +48,31 @@ public class Config {
 
     public static boolean USE_EXTERNAL_TAGGING = false;
 
+    // root every gene tree on the edge with the fewest duplications before tagging
+    public static boolean REROOT_GENE_TREES = false;
+
+    // leaf labels are cut at the first occurrence of this character to get the species, as species_copy.
+    // negative to keep the labels as they are, species names may have the character in them
+    public static int SPECIES_DELIMITER = -1;
+
+    // fold gene trees into the data container while reading instead of keeping them all in memory
+    public static boolean STREAM_GENE_TREES = true;
+
+    // build the consensus tree for the initial partitions from the decomposed gene trees instead of reading it from a file
+    public static boolean COMPUTE_CONSENSUS = false;
+
+    // gene trees with fewer species are dropped while reading, they hold no quartet
+    public static int MIN_SPECIES_PER_TREE = 4;
+
+    // gene trees equal up to the order of children are folded once, with their count as the weight
+    public static boolean DEDUPLICATE_GENE_TREES = true;
+
+    // print the resource plan and stop before the search
+    public static boolean PLAN_ONLY = false;
+
+    // stop before the search if the projected peak heap is more than the JVM may use, otherwise only warn
+    public static boolean ENFORCE_PLAN = false;
+
+    public static int NUM_THREADS = Runtime.getRuntime().availableProcessors();
+
 }
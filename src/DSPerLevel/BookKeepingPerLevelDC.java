@@ -1,21 +1,15 @@
 package src.DSPerLevel;
 
 
-import java.util.ArrayDeque;
-import java.util.HashSet;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Arrays;
 
 import src.Config;
-import src.Utility;
+import src.Utility.EpochMarks;
 import src.InitialPartition.IMakePartition;
-import src.PreProcessing.Data;
+import src.PreProcessing.ComponentDag;
 import src.PreProcessing.DataContainer;
 import src.PreProcessing.InternalNode;
-import src.PreProcessing.Component;
-import src.PreProcessing.Component.InternalNodeWithIndex;
-import src.ScoreCalculator.NumSatSQ;
-import src.ScoreCalculator.NumSatSQBin2;
+import src.ScoreCalculator.NumSatSQFlat;
 import src.Taxon.DummyTaxon;
 import src.Taxon.RealTaxon;
 import src.Tree.Branch;
@@ -24,6 +18,29 @@ public class BookKeepingPerLevelDC {
 
     public DataContainer dc;
     public TaxaPerLevelWithPartition taxaPerLevel;
+    // the counts of every internal node of the dag for this level, the branch of a slot is
+    // NumSatSQFlat.branchOf(slotNode, slotIndex)
+    public NumSatSQFlat engine;
+    // gains of moving a taxon of the subtree of a component, two per component id
+    private double[] gainsSat, gainsVio;
+    // the gains of the real taxa of the level are summed over the components above each of them in the
+    // taxon index when that is less work than a sweep over the whole dag
+    private boolean gatherRealTaxonGains;
+    private double[] pathSat, pathVio;
+    // internal nodes and slots with a flattened real taxon of dummy taxon d at [start[d], start[d + 1]),
+    // null without the taxon index of the dag. a branch without one of them has no weight for d
+    private int[] dummyNodeStart, dummyNodes;
+    private int[] dummySlotStart, dummySlots;
+    // sat and vio parts of the gains of the taxa, and the gains of child i of a node at 2 * i + p and of its
+    // parent at 4 + p, for calculateScoreAndGains
+    private double[] rtSat, rtVio, dtSat, dtVio;
+    private double[] satGain, vioGain;
+    // gains, locks and swaps of a pass of the FM search, made with the level and reused by every pass.
+    // a swapped real taxon is kept by its index and a dummy taxon by -1 - its index, in the order of the swaps
+    public double[][] realTaxaGains;
+    public double[] dummyTaxaGains;
+    public boolean[] realTaxonLocked, dummyTaxonLocked;
+    public int[] swapped;
     // BookKeepingPerTreeDC[] bookKeepingPerTreeDCs;
 
     public BookKeepingPerLevelDC(DataContainer dc, TaxaPerLevelWithPartition taxaPerLevelWithPartition){
@@ -42,54 +59,49 @@ public class BookKeepingPerLevelDC {
 
     public void initialBookKeeping(){
 
-        int b = 0;
-        for(int i = 0; i < this.dc.realTaxaComponents.length; ++i){
-            Component p = this.dc.realTaxaComponents[i];
-            // p.data = new Data();
-            p.initializeDataListForEachInternalNode(
-                this.taxaPerLevel.dummyTaxonCount
-            );
-            // p.data.branch = new Branch(this.taxaPerLevel.dummyTaxonCount);
-
-            // if(this.taxaPerLevel.isInDummyTaxa(i)){
-            //     int dtid = this.taxaPerLevel.inWhichDummyTaxa(i);
-            //     int partition = this.taxaPerLevel.inWhichPartitionDummyTaxonByIndex(dtid);
-            //     p.data.branch.dummyTaxaWeightsIndividual[dtid] = this.taxaPerLevel.getWeight(i);
-            //     p.data.branch.totalTaxaCounts[partition] += this.taxaPerLevel.getWeight(i);
-
-            // }
-            // else{
-            //     int partition = this.taxaPerLevel.inWhichPartition(i);
-            //     p.data.branch.realTaxaCounts[partition] = 1;
-            //     p.data.branch.totalTaxaCounts[partition] = 1;
-            // }
-
+        ComponentDag dag = this.dc.dag;
+        this.engine = new NumSatSQFlat(dag.nodes.length, this.taxaPerLevel.dummyTaxonCount, this.taxaPerLevel.dummyTaxonPartition);
+        // every branch is worked out here and copied into the engine
+        Branch branch = new Branch(this.taxaPerLevel.dummyTaxonCount);
+        this.gainsSat = new double[2 * dag.size];
+        this.gainsVio = new double[2 * dag.size];
+
+        int rtc = this.taxaPerLevel.realTaxonCount, dtc = this.taxaPerLevel.dummyTaxonCount;
+        this.rtSat = new double[rtc];
+        this.rtVio = new double[rtc];
+        this.dtSat = new double[dtc];
+        this.dtVio = new double[dtc];
+        this.satGain = new double[6];
+        this.vioGain = new double[6];
+        this.realTaxaGains = new double[rtc][2];
+        this.dummyTaxaGains = new double[dtc];
+        this.realTaxonLocked = new boolean[rtc];
+        this.dummyTaxonLocked = new boolean[dtc];
+        this.swapped = new int[rtc + dtc];
+
+        if(dag.hasTaxonIndex()){
+            long gathered = 0;
+            for(RealTaxon rt : this.taxaPerLevel.realTaxa){
+                gathered += dag.taxonStart[rt.id + 1] - dag.taxonStart[rt.id];
+            }
+            this.gatherRealTaxonGains = gathered < dag.children.length;
+        }
+        if(this.gatherRealTaxonGains){
+            this.pathSat = new double[2 * dag.size];
+            this.pathVio = new double[2 * dag.size];
+        }
+        if(dag.hasTaxonIndex()){
+            this.buildDummyTaxonIndex(dag);
         }
-        // this.dc.sentinel.data = new Data();
-        this.dc.sentinel.initializeDataListForEachInternalNode(this.taxaPerLevel.dummyTaxonCount);
-        // this.dc.sentinel.data.branch = new Branch(this.taxaPerLevel.dummyTaxonCount);
 
-        int sz = this.dc.topSortedComponents.size();
+        for(int n = 0; n < dag.nodes.length; ++n){
+            InternalNode p = dag.nodes[n];
 
-        for(int i = sz - 1; i >  -1; --i){
-            Component p = this.dc.topSortedComponents.get(i);
-            if(p.isLeaf){
-                continue;
-            }
-            else{
-                p.initializeDataListForEachInternalNode(
-                    this.taxaPerLevel.dummyTaxonCount
-                );
-                // p.data = new Data();
-                // p.data.branch = new Branch(this.taxaPerLevel.dummyTaxonCount);
-                // for(Component child : p.children){
-                //     p.data.branch.addToSelf(child.data.branch);
-                // }
+            if(p.childs.length > 2){
+                // p.scoreCalculator = new NumSatCalculatorNodeEDC(b,this.taxaPerLevel.dummyTaxonPartition);
+                System.out.println("======================= polytomy ============================");
+                System.exit(-1);
             }
-        }
-
-        for(InternalNode p : this.dc.internalNodes){
-            Branch[] childs = p.getBranchesOfChilds();
 
             // adjust dummy taxa weights in case of absent taxa in this internal node
 
@@ -102,45 +114,79 @@ public class BookKeepingPerLevelDC {
             }
 
             for(int i = 0; i < p.childs.length; ++i){
-                childs[i].calculateAllFromListOfTaxa(
+                branch.calculateAllFromListOfTaxa(
                     p.childs[i].realTaxaInComponent,
                     weights, taxaPerLevel
                 );
+                this.engine.setBranch(n, i, branch);
             }
 
-            Branch parentBranch = p.getBranchOfParent();
-            parentBranch.calculateAllFromListOfTaxa(
+            branch.calculateAllFromListOfTaxa(
                 p.parent.realTaxaInComponent,
                 weights, taxaPerLevel
             );
+            this.engine.setBranch(n, 2, branch);
 
+            // p.scoreCalculator = new NumSatCalculatorBinaryNodeDC(b, this.taxaPerLevel.dummyTaxonPartition);
+            // p.scoreCalculator = new NumSatSQBin2(childs, parentBranch, this.taxaPerLevel.dummyTaxonPartition, p.count);
+            this.engine.initNode(n, p.count);
+            p.scoreCalculator = this.engine.node(n);
+        }
+    }
 
-            if(p.childs.length > 2){
-                // p.scoreCalculator = new NumSatCalculatorNodeEDC(b,this.taxaPerLevel.dummyTaxonPartition);
-                System.out.println("======================= polytomy ============================");
-                System.exit(-1);
-            }
-            else{
-                // p.scoreCalculator = new NumSatCalculatorBinaryNodeDC(b, this.taxaPerLevel.dummyTaxonPartition);
-                // p.scoreCalculator = new NumSatSQBin(b, this.taxaPerLevel.dummyTaxonPartition);
-                // if(p.count != p.parentSpeciationCount){
-                //     System.out.println("=================");
-                // }
-                p.scoreCalculator = new NumSatSQBin2(childs, parentBranch, this.taxaPerLevel.dummyTaxonPartition, p.count);
+
+    // the slots of every flattened real taxon come from the taxon index of the dag, each slot and
+    // internal node is kept once per dummy taxon
+    private void buildDummyTaxonIndex(ComponentDag dag){
+        DummyTaxon[] dummyTaxa = this.taxaPerLevel.dummyTaxa;
+        this.dummyNodeStart = new int[dummyTaxa.length + 1];
+        this.dummySlotStart = new int[dummyTaxa.length + 1];
+        int[][] nodesOf = new int[dummyTaxa.length][];
+        int[][] slotsOf = new int[dummyTaxa.length][];
+
+        EpochMarks nodeMarks = new EpochMarks(dag.nodes.length);
+        EpochMarks slotMarks = new EpochMarks(dag.slotCount());
+        int[] nodes = new int[dag.nodes.length];
+        int[] slots = new int[dag.slotCount()];
+
+        for(int d = 0; d < dummyTaxa.length; ++d){
+            nodeMarks.newEpoch();
+            slotMarks.newEpoch();
+            int nodeCount = 0, slotCount = 0;
+            for(RealTaxon rt : dummyTaxa[d].flattenedRealTaxa){
+                for(int k = dag.taxonSlotStart[rt.id]; k < dag.taxonSlotStart[rt.id + 1]; ++k){
+                    int s = dag.taxonSlots[k];
+                    if(slotMarks.mark(s)){
+                        slots[slotCount++] = s;
+                    }
+                    if(nodeMarks.mark(dag.slotNode[s])){
+                        nodes[nodeCount++] = dag.slotNode[s];
+                    }
+                }
             }
+            nodesOf[d] = Arrays.copyOf(nodes, nodeCount);
+            slotsOf[d] = Arrays.copyOf(slots, slotCount);
+            this.dummyNodeStart[d + 1] = this.dummyNodeStart[d] + nodeCount;
+            this.dummySlotStart[d + 1] = this.dummySlotStart[d] + slotCount;
         }
-    }
 
+        this.dummyNodes = new int[this.dummyNodeStart[dummyTaxa.length]];
+        this.dummySlots = new int[this.dummySlotStart[dummyTaxa.length]];
+        for(int d = 0; d < dummyTaxa.length; ++d){
+            System.arraycopy(nodesOf[d], 0, this.dummyNodes, this.dummyNodeStart[d], nodesOf[d].length);
+            System.arraycopy(slotsOf[d], 0, this.dummySlots, this.dummySlotStart[d], slotsOf[d].length);
+        }
+    }
 
     public double calculateScore(){
 
         double sat = 0;
         double vio = 0;
         
-        for(InternalNode p : this.dc.internalNodes){
+        for(int n = 0; n < this.engine.nodeCount; ++n){
             // score += p.scoreCalculator.score() * p.count;
-            sat += p.scoreCalculator.sat();
-            vio += p.scoreCalculator.vio();
+            sat += this.engine.sat(n);
+            vio += this.engine.vio(n);
         }
 
         return Config.SCORE_EQN.scoreFromSatAndVio(sat, vio);
@@ -154,82 +200,64 @@ public class BookKeepingPerLevelDC {
     public double calculateScoreAndGains(double[][] realTaxaGains, double[] dummyTaxaGains){
         // double totalScore = 0;
         
-        double[] dtSat = new double[dummyTaxaGains.length];
-        double[] dtVio = new double[dummyTaxaGains.length];
+        double[] dtSat = this.dtSat, dtVio = this.dtVio;
+        double[] rtSat = this.rtSat, rtVio = this.rtVio;
+        Arrays.fill(dtSat, 0);
+        Arrays.fill(dtVio, 0);
 
-        double[][] rtSat = new double[realTaxaGains.length][2];
-        double[][] rtVio = new double[realTaxaGains.length][2];
-
-        for(Component p : this.dc.topSortedComponents){
-            p.gainsForSubTreeSat = new double[2];
-            p.gainsForSubTreeVio = new double[2];
-        }
-
-        this.dc.sentinel.gainsForSubTreeSat = new double[2];
-        this.dc.sentinel.gainsForSubTreeVio = new double[2];
+        ComponentDag dag = this.dc.dag;
+        double[] gainsSat = this.gainsSat;
+        double[] gainsVio = this.gainsVio;
+        Arrays.fill(gainsSat, 0);
+        Arrays.fill(gainsVio, 0);
 
         double sat = 0;
         double vio = 0;
 
-        for(InternalNode p : this.dc.internalNodes){
+        NumSatSQFlat engine = this.engine;
+        double[] satGain = this.satGain, vioGain = this.vioGain;
 
-            double csat = p.scoreCalculator.sat();
-            double cvio = p.scoreCalculator.vio();
+        for(int n = 0; n < engine.nodeCount; ++n){
+            double csat = engine.sat(n);
+            double cvio = engine.vio(n);
 
             sat += csat;
             vio += cvio;
 
-            NumSatSQ.RTGainReturnType satGain = p.scoreCalculator.gainSatRealTaxa(csat);
-            NumSatSQ.RTGainReturnType vioGain = p.scoreCalculator.gainVioRealTaxa(cvio);
-
-            
-            p.scoreCalculator.gainSatDummyTaxa(dtSat, csat);
-            p.scoreCalculator.gainVioDummyTaxa(dtVio, cvio);
+            engine.gainRealTaxa(n, satGain, vioGain);
 
+            engine.gainDummyTaxa(n, false, dtSat, csat);
+            engine.gainDummyTaxa(n, true, dtVio, cvio);
 
-            for(int i = 0; i < p.childs.length; ++i){
-                // Utility.addArrayToFirst(p.childCompsCommon[i].gainsForSubTree, gains.commonGains[i]);
-                // Utility.addArrayToFirst(p.childCompsUniques[i].gainsForSubTree, gains.uniqueGains[i]);
-
-                Utility.addArrayToFirst(p.childs[i].gainsForSubTreeSat, satGain.childGains[i]);
-                Utility.addArrayToFirst(p.childs[i].gainsForSubTreeVio, vioGain.childGains[i]);
-                
+            int first = dag.nodeSlotStart[n];
+            for(int i = 0; i < 3; ++i){
+                int c = 2 * dag.slotComponent[dag.nodeSlots[first + i]];
+                gainsSat[c] += satGain[2 * i];
+                gainsSat[c + 1] += satGain[2 * i + 1];
+                gainsVio[c] += vioGain[2 * i];
+                gainsVio[c + 1] += vioGain[2 * i + 1];
             }
-            Utility.addArrayToFirst(p.parent.gainsForSubTreeSat, satGain.parentGain);
-            Utility.addArrayToFirst(p.parent.gainsForSubTreeVio, vioGain.parentGain);
-
-            // for(int i = 0; i < p.partitionNodes.length - 1; ++i){
-            //     for(int j = 0; j < 2; ++j){
-            //         if(p.gainChildNodes[i][j] != null){
-            //             Utility.addArrayToFirst(p.gainChildNodes[i][j].gainsForSubTree, branchGainsForRealTaxa[i][j]);
-            //         }
-            //     }
-            //     // Utility.addArrayToFirst(p.partitionNodes[i].gainsForSubTree, branchGainsForRealTaxa[i]);
-            // }
-            // int pi = p.partitionNodes.length - 1;
-            // if(p.gainParentNode != null){
-            //     Utility.addArrayToFirst(p.gainParentNode.gainsForSubTree, branchGainsForRealTaxa[pi][1]);
-            // }
         }
 
         double currScore = Config.SCORE_EQN.scoreFromSatAndVio(sat, vio);
 
-        for(Component p : this.dc.topSortedComponents){
-            for(Component childs : p.children){
-                Utility.addArrayToFirst(childs.gainsForSubTreeSat, p.gainsForSubTreeSat);
-                Utility.addArrayToFirst(childs.gainsForSubTreeVio, p.gainsForSubTreeVio);
+        // a real taxon can only move out of the partition it is in, the gain for the other is left 0
+        if(this.gatherRealTaxonGains){
+            for(int i = 0; i < this.taxaPerLevel.realTaxonCount; ++i){
+                int t = this.taxaPerLevel.realTaxa[i].id;
+                int p = this.taxaPerLevel.inWhichPartitionRealTaxonByIndex(i);
+                rtSat[i] = gatherGains(t, p, gainsSat, this.pathSat);
+                rtVio[i] = gatherGains(t, p, gainsVio, this.pathVio);
             }
         }
-
+        else{
+            sweepGains(dag, gainsSat, gainsVio, rtSat, rtVio);
+        }
 
         for(int i = 0; i < this.taxaPerLevel.realTaxonCount; ++i){
-            RealTaxon rt = this.taxaPerLevel.realTaxa[i];
-            Utility.addArrayToFirst(rtSat[i], this.dc.realTaxaComponents[rt.id].gainsForSubTreeSat);
-            Utility.addArrayToFirst(rtVio[i], this.dc.realTaxaComponents[rt.id].gainsForSubTreeVio);
-            realTaxaGains[i] = new double[2];
-            for(int j = 0; j < 2; ++j){
-                realTaxaGains[i][j] = Config.SCORE_EQN.scoreFromSatAndVio(rtSat[i][j] + sat, rtVio[i][j] + vio) - currScore;
-            }
+            int p = this.taxaPerLevel.inWhichPartitionRealTaxonByIndex(i);
+            realTaxaGains[i][p] = Config.SCORE_EQN.scoreFromSatAndVio(rtSat[i] + sat, rtVio[i] + vio) - currScore;
+            realTaxaGains[i][1 - p] = 0;
         }
 
         for(int i = 0; i < dummyTaxaGains.length; ++i){
@@ -239,6 +267,45 @@ public class BookKeepingPerLevelDC {
         return Config.SCORE_EQN.scoreFromSatAndVio(sat, vio);
     }
 
+    // pushes the gains of every component down to its children, parents first, and adds those of the
+    // leaves to the gains of the real taxa
+    private void sweepGains(ComponentDag dag, double[] gainsSat, double[] gainsVio, double[] rtSat, double[] rtVio){
+        for(int c : dag.topOrder){
+            for(int k = dag.childStart[c]; k < dag.childStart[c + 1]; ++k){
+                int child = 2 * dag.children[k];
+                gainsSat[child] += gainsSat[2 * c];
+                gainsSat[child + 1] += gainsSat[2 * c + 1];
+                gainsVio[child] += gainsVio[2 * c];
+                gainsVio[child + 1] += gainsVio[2 * c + 1];
+            }
+        }
+
+
+        for(int i = 0; i < this.taxaPerLevel.realTaxonCount; ++i){
+            RealTaxon rt = this.taxaPerLevel.realTaxa[i];
+            int p = this.taxaPerLevel.inWhichPartitionRealTaxonByIndex(i);
+            // the leaf of a taxon has the id of the taxon
+            rtSat[i] = gainsSat[2 * rt.id + p];
+            rtVio[i] = gainsVio[2 * rt.id + p];
+        }
+    }
+
+    // the same sum for partition p as the sweep gives the leaf of taxon t, made only over the components above it.
+    // they are added in the order of the sweep, so the result is the same to the last bit
+    private double gatherGains(int t, int p, double[] gains, double[] path){
+        ComponentDag dag = this.dc.dag;
+        int from = dag.taxonStart[t], to = dag.taxonStart[t + 1];
+        for(int e = from; e < to; ++e){
+            int a = 2 * dag.taxonAncestors[e] + p;
+            path[a] = gains[a];
+        }
+        path[2 * t + p] = gains[2 * t + p];
+        for(int e = from; e < to; ++e){
+            path[2 * dag.taxonPathChild[e] + p] += path[2 * dag.taxonAncestors[e] + p];
+        }
+        return path[2 * t + p];
+    }
+
     // public void swapRealTaxon3(int index){
     //     int partition = this.taxaPerLevel.inWhichPartitionRealTaxonByIndex(index);
     //     this.taxaPerLevel.swapPartitionRealTaxon(index);
@@ -363,64 +430,42 @@ public class BookKeepingPerLevelDC {
         
         // this.dc.realTaxaPartitionNodes[rtId].data.branch.swapRealTaxa(partition);
 
-        Queue<Component> q = new ArrayDeque<>();
-        // q.add(this.dc.realTaxaPartitionNodes[index]);
-        // System.out.println(this.dc.realTaxaPartitionNodes[rtId].parents);
-        // q.addAll(this.dc.realTaxaPartitionNodes[rtId].parents);
-        q.add(this.dc.realTaxaComponents[rtId]);
-
-        // Set<PartitionNode> st = new HashSet<>();
-        // st.addAll(this.dc.realTaxaPartitionNodes[rtId].parents);
-        
-        // for(var x : this.dc.partitionsByTreeNodes){
-        //     System.out.println(x);
-        // }
-        // System.out.println();
-
-        while(!q.isEmpty()){
-            Component f = q.poll();
-
+        ComponentDag dag = this.dc.dag;
+        if(dag.hasTaxonIndex()){
+            // the slots in the order the walk below reaches them
+            int from = dag.taxonSlotStart[rtId], to = dag.taxonSlotStart[rtId + 1];
+            for(int k = from; k < to; ++k){
+                int s = dag.taxonSlots[k];
+                this.engine.transferRealTaxon(dag.slotNode[s], dag.slotIndex[s], partition);
+            }
+            for(int k = from; k < to; ++k){
+                int s = dag.taxonSlots[k];
+                this.engine.swapRealTaxa(NumSatSQFlat.branchOf(dag.slotNode[s], dag.slotIndex[s]), partition);
+            }
+            return;
+        }
 
-            for(InternalNodeWithIndex p : f.partOfInternalNodes){
-                // System.out.println(p.partitionByTreeNode);
+        // without the index children of a component may share the taxon, so an ancestor can be reached
+        // by two paths. it is marked in the walk so its slots are moved once, as the branches count the taxon once
+        int[] q = dag.queue;
+        int head = 0, tail = 0;
+        dag.newWalk();
+        dag.visit(rtId);
+        q[tail++] = rtId;
 
-                // System.out.println("index: " + p.index);
-                // if(p.partitionByTreeNode.partitionNodes[p.index] != f){
-                //     System.out.println("------------------");
-                // }
-                p.internalNode.scoreCalculator.transferRealTaxon(
-                    p.index,
-                    partition
-                );
-                // if(p.method == InternalNodeWithIndex.Method.COMMON){
-                //     p.internalNode.scoreCalculator.transferCommon(
-                //         p.index,
-                //         partition
-                //     );
-                // }
-                // else if(p.method == InternalNodeWithIndex.Method.UNIQUE){
-                //     p.internalNode.scoreCalculator.transferUnique(
-                //         p.index,
-                //         partition
-                //     );
-                // }
-                // else{
-                //     p.internalNode.scoreCalculator.transferParentUnique(partition);
-                // }
+        while(head < tail){
+            int f = q[head++];
 
+            for(int s = dag.slotStart[f]; s < dag.slotStart[f + 1]; ++s){
+                this.engine.transferRealTaxon(dag.slotNode[s], dag.slotIndex[s], partition);
+            }
+            for(int k = dag.parentStart[f]; k < dag.parentStart[f + 1]; ++k){
+                if(dag.visit(dag.parents[k])){
+                    q[tail++] = dag.parents[k];
+                }
             }
-            // for(PartitionNode p : f.parents){
-            //     if(st.add(p)){
-            //         q.add(p);
-            //     }
-            //     else{
-            //         System.out.println("----------------------------");
-            //     }
-            // }
-            q.addAll(f.parents);
-            // f.data.branch.swapRealTaxa(partition);
-            for (var data : f.dataList) {
-                data.branch.swapRealTaxa(partition);
+            for(int s = dag.slotStart[f]; s < dag.slotStart[f + 1]; ++s){
+                this.engine.swapRealTaxa(NumSatSQFlat.branchOf(dag.slotNode[s], dag.slotIndex[s]), partition);
             }
         }
     }
@@ -433,44 +478,56 @@ public class BookKeepingPerLevelDC {
         //     bkpt.swapDummyTaxon(index, partition);
         // }
 
-        for(InternalNode p : this.dc.internalNodes){
-            p.scoreCalculator.transferDummyTaxon(index, partition);
+        ComponentDag dag = this.dc.dag;
+        if(this.dummyNodes != null){
+            for(int k = this.dummyNodeStart[index]; k < this.dummyNodeStart[index + 1]; ++k){
+                this.engine.transferDummyTaxon(this.dummyNodes[k], index, partition);
+            }
+            for(int k = this.dummySlotStart[index]; k < this.dummySlotStart[index + 1]; ++k){
+                int s = this.dummySlots[k];
+                this.engine.swapDummyTaxon(NumSatSQFlat.branchOf(dag.slotNode[s], dag.slotIndex[s]), index, partition);
+            }
+            return;
         }
 
-        Set<Component> st = new HashSet<>();
-        
-        Queue<Component> q = new ArrayDeque<>();
+        for(int n = 0; n < this.engine.nodeCount; ++n){
+            this.engine.transferDummyTaxon(n, index, partition);
+        }
+
+        int[] q = dag.queue;
+        int head = 0, tail = 0;
+        dag.newWalk();
 
         DummyTaxon dt = this.taxaPerLevel.dummyTaxa[index];
 
         for(RealTaxon rt : dt.flattenedRealTaxa){
-            // this.dc.realTaxaComponents[rt.id].data.branch.swapDummyTaxon(index, partition);
-            var component = this.dc.realTaxaComponents[rt.id];
-            for (var data : component.dataList) {
-                data.branch.swapDummyTaxon(index, partition);
-            }
-            for(Component p : this.dc.realTaxaComponents[rt.id].parents){
-                if(st.add(p)){
-                    q.add(p);
+            swapDummyTaxonInSlots(rt.id, index, partition);
+            for(int k = dag.parentStart[rt.id]; k < dag.parentStart[rt.id + 1]; ++k){
+                if(dag.visit(dag.parents[k])){
+                    q[tail++] = dag.parents[k];
                 }
             }
         }
 
-        while(!q.isEmpty()){
-            Component f = q.poll();
-            // f.data.branch.swapDummyTaxon(index, partition);
-            for (var data : f.dataList) {
-                data.branch.swapDummyTaxon(index, partition);
-            }
-            for(Component p : f.parents){
-                if(st.add(p)){
-                    q.add(p);
+        while(head < tail){
+            int f = q[head++];
+            swapDummyTaxonInSlots(f, index, partition);
+            for(int k = dag.parentStart[f]; k < dag.parentStart[f + 1]; ++k){
+                if(dag.visit(dag.parents[k])){
+                    q[tail++] = dag.parents[k];
                 }
             }
         }
 
     }
 
+    private void swapDummyTaxonInSlots(int c, int index, int partition){
+        ComponentDag dag = this.dc.dag;
+        for(int s = dag.slotStart[c]; s < dag.slotStart[c + 1]; ++s){
+            this.engine.swapDummyTaxon(NumSatSQFlat.branchOf(dag.slotNode[s], dag.slotIndex[s]), index, partition);
+        }
+    }
+
     public void swapTaxon(int index, boolean isDummy){
         if(isDummy) this.swapDummyTaxon(index);
         else this.transferRealTaxon(index);
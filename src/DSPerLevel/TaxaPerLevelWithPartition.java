@@ -192,7 +192,7 @@ public class TaxaPerLevelWithPartition {
 
     public void swapPartitionRealTaxon(int index){
         int currPartition = this.realTaxonPartition[index];
-        int switchedPartition = (int) (1 - currPartition);
+        int switchedPartition = (1 - currPartition);
 
         this.realTaxonPartition[index] = switchedPartition;
         this.inWhichPartition[this.realTaxa[index].id] = switchedPartition;
@@ -30,11 +30,12 @@ public class ConsensusTreePartitionDC implements IMakePartition {
     
 
     public ConsensusTreePartitionDC(String filePath, Map<String, RealTaxon> taxaMap, DataContainer dc) throws FileNotFoundException{
-        Scanner scanner = new Scanner(new File(filePath));
-        String line = scanner.nextLine();
-        this.consTree = new Tree(line, taxaMap);
+        this(readConsensusTree(filePath, taxaMap), taxaMap, dc);
+    }
+
+    public ConsensusTreePartitionDC(Tree consTree, Map<String, RealTaxon> taxaMap, DataContainer dc){
+        this.consTree = consTree;
         this.taxonCount = taxaMap.size();
-        scanner.close();
 
         randPartition = new RandPartition();
         this.taxaMap = taxaMap;
@@ -43,6 +44,13 @@ public class ConsensusTreePartitionDC implements IMakePartition {
         
     }
 
+    private static Tree readConsensusTree(String filePath, Map<String, RealTaxon> taxaMap) throws FileNotFoundException{
+        Scanner scanner = new Scanner(new File(filePath));
+        String line = scanner.nextLine();
+        scanner.close();
+        return new Tree(line, taxaMap);
+    }
+
 
 
     private void assignSubTreeToPartition(TreeNode node, int[] rtsp, Map<Integer, Integer> idToIndex){
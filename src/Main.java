@@ -1,5 +1,6 @@
 package src;
 
+import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 
@@ -41,7 +42,7 @@ public class Main {
 
         if(args.length < 3){
             // System.out.println("Specify all file paths");
-            System.out.println("Usage: java -jar wQFM-GDL.jar <inputFilePath> <consensusFilePath> <outputFilePath> ");
+            System.out.println("Usage: java -jar wQFM-GDL.jar <inputFilePath> <consensusFilePath|-> <outputFilePath> [true|false] [--threads <n>] [--species-delimiter <c|none>] [--resolve-polytomies] [--reroot] [--plan] [--enforce-plan]");
             System.exit(-1);
         }
 
@@ -49,14 +50,46 @@ public class Main {
         consensusFilePath = args[1];
         outputFilePath = args[2];
 
-        if(args.length >= 4){
-            String useExternalTagging = args[3];
-            if(useExternalTagging.equals("true")){
+        // '-' builds the consensus tree from the gene trees themselves
+        Config.COMPUTE_CONSENSUS = consensusFilePath.equals("-");
+
+        for(int i = 3; i < args.length; ++i){
+            String arg = args[i];
+            if(arg.equals("true")){
                 Config.USE_EXTERNAL_TAGGING = true;
-            }else if(useExternalTagging.equals("false")){
+            }else if(arg.equals("false")){
                 Config.USE_EXTERNAL_TAGGING = false;
+            }else if(arg.equals("--threads") && i + 1 < args.length){
+                try{
+                    Config.NUM_THREADS = Integer.parseInt(args[++i]);
+                }catch(NumberFormatException e){
+                    Config.NUM_THREADS = 0;
+                }
+                if(Config.NUM_THREADS < 1){
+                    System.out.println("Specify number of threads as a positive integer");
+                    System.exit(-1);
+                }
+            }else if(arg.equals("--plan")){
+                Config.PLAN_ONLY = true;
+            }else if(arg.equals("--enforce-plan")){
+                Config.ENFORCE_PLAN = true;
+            }else if(arg.equals("--reroot")){
+                Config.REROOT_GENE_TREES = true;
+            }else if(arg.equals("--resolve-polytomies")){
+                Config.RESOLVE_POLYTOMY = true;
+            }else if(arg.equals("--species-delimiter") && i + 1 < args.length){
+                String delimiter = args[++i];
+                if(delimiter.equals("none")){
+                    Config.SPECIES_DELIMITER = -1;
+                }else if(delimiter.length() == 1 && delimiter.charAt(0) < 128){
+                    Config.SPECIES_DELIMITER = delimiter.charAt(0);
+                }else{
+                    System.out.println("Specify species delimiter as a single character or none");
+                    System.exit(-1);
+                }
             }else{
-                System.out.println("Specify use external tagging as true or false");
+                System.out.println("Unknown option: " + arg);
+                System.out.println("Options: [true|false] (use external tagging) [--threads <n>] [--species-delimiter <c|none>] [--resolve-polytomies] [--reroot] [--plan] [--enforce-plan]");
                 System.exit(-1);
             }
         }
@@ -139,7 +172,26 @@ public class Main {
         
 
         Preprocess.PreprocessReturnType ret = Preprocess.preprocess(inputFilePath);
-        ConsensusTreePartitionDC consensusTreePartitionDC = new ConsensusTreePartitionDC(consensusFilePath, ret.taxaMap, ret.dc);
+
+        ResourcePlanner plan = new ResourcePlanner(ret.dc, new File(inputFilePath).length());
+        plan.print();
+        if(Config.PLAN_ONLY){
+            return;
+        }
+        if(!plan.fits()){
+            if(Config.ENFORCE_PLAN){
+                System.out.println("Projected peak heap does not fit in the heap of this JVM, rerun with " + plan.recommendedHeap());
+                System.exit(-1);
+            }
+            System.out.println("Warning: projected peak heap may not fit in the heap of this JVM, consider " + plan.recommendedHeap());
+        }
+        ConsensusTreePartitionDC consensusTreePartitionDC;
+        if(ret.consensusTree != null){
+            consensusTreePartitionDC = new ConsensusTreePartitionDC(ret.consensusTree, ret.taxaMap, ret.dc);
+        }
+        else{
+            consensusTreePartitionDC = new ConsensusTreePartitionDC(consensusFilePath, ret.taxaMap, ret.dc);
+        }
         IMakePartition  partitionMakerDC = consensusTreePartitionDC;
 
 
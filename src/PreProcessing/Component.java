@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 import src.Taxon.RealTaxon;
-import src.Tree.Branch;
+import src.Taxon.TaxonSet;
 
 public class Component{
 
@@ -29,13 +29,15 @@ public class Component{
     public String label;
 
     public ArrayList<RealTaxon> realTaxaInComponent;
-
-    // public Data data;
-    public ArrayList<Data> dataList;
+    // the same taxa as a set, kept from the time the component is made
+    public TaxonSet realTaxaSet;
+    // dense, in the order the components are made, set by ComponentGraph
+    public int id;
+    // fingerprint of realTaxaSet, see TaxonSet.fingerprintHi
+    public long fingerprintHi, fingerprintLo;
 
     // public boolean gainPartition;
     // public boolean onlyGainPartition;
-    public double[] gainsForSubTreeSat, gainsForSubTreeVio;
 
     public int nodeCount;
 
@@ -47,28 +49,17 @@ public class Component{
         
     // }
 
-    public void initializeDataListForEachInternalNode(
-        int dummyTaxonCount
-    ){
-        this.dataList = new ArrayList<>();
-        for(int i = 0; i < this.partOfInternalNodes.size(); ++i){
-            this.dataList.add(new Data());
-        }
-        for(Data d: this.dataList){
-            d.branch = new Branch(dummyTaxonCount);
-        }
-    }
-
     public Component(boolean isLeaf){
         this.parents = new ArrayList<Component>();
         this.children = new ArrayList<Component>();
         this.isLeaf = isLeaf;
         this.partOfInternalNodes = new ArrayList<>();
-        this.dataList = new ArrayList<>();
         // this.gainPartition = false;
         // this.onlyGainPartition = false;
         this.nodeCount = 0;
         this.realTaxaInComponent = null;
+        this.realTaxaSet = null;
+        this.id = -1;
         
     }
     
@@ -0,0 +1,244 @@
+package src.PreProcessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import src.Utility.EpochMarks;
+
+// Array form of the component graph, made once the gene trees are folded and never changed after.
+// Components are numbered by their id, the leaf of taxon i is i and the sentinel comes right after the leaves.
+// Parents, children and slots of component c are at [start[c], start[c + 1]) of their arrays, in the order of
+// the lists of the component. A slot is one place of a component in an internal node, the k-th slot of c is
+// c.partOfInternalNodes.get(k), and a level keeps one Branch per slot.
+// Components with no slot are left out when only such components are above them, nothing is ever read from
+// them. A component with no slot and one parent left is passed through, its children hang from that parent.
+// Components left out keep their id, with nothing in their ranges.
+public class ComponentDag {
+
+    public final int size;
+
+    public final int[] parentStart, parents;
+    public final int[] childStart, children;
+
+    public final int[] slotStart;
+    // internal node of a slot and the place of the component in it, 0 and 1 for children and 2 for the parent
+    public final int[] slotNode, slotIndex;
+    public final int[] slotComponent;
+
+    // slots of internal node i at [nodeSlotStart[i], nodeSlotStart[i + 1]), its children in order and then its parent
+    public final int[] nodeSlotStart, nodeSlots;
+    public final InternalNode[] nodes;
+
+    // every component kept but the sentinel, parents before children
+    public final int[] topOrder;
+    public int droppedCount, passedCount;
+
+    // entries of taxon t at [taxonStart[t], taxonStart[t + 1]), null when the index would be larger than
+    // MAX_TAXON_INDEX_ENTRIES or a component can be reached from a leaf on two paths.
+    // taxonSlots are the slots of the components with t in the order the walk up from the leaf of t reaches them,
+    // taxonAncestors the components above the leaf in topological order, each with the component below it
+    // that has t in taxonPathChild
+    public int[] taxonSlotStart, taxonSlots;
+    public int[] taxonStart, taxonAncestors, taxonPathChild;
+
+    public static final long MAX_TAXON_INDEX_ENTRIES = 1L << 26;
+
+    // for walks over the dag
+    public final int[] queue;
+    private final EpochMarks seen;
+
+    public ComponentDag(ArrayList<Component> topSortedComponents, Component sentinel, ArrayList<InternalNode> internalNodes) {
+        this.size = topSortedComponents.size() + 1;
+
+        Component[] byId = new Component[size];
+        for (Component c : topSortedComponents)
+            byId[c.id] = c;
+        byId[sentinel.id] = sentinel;
+
+        // the component that stands for c, -1 if c is left out. parents come first in the order
+        int[] up = new int[size];
+        int kept = 0;
+        for (Component c : topSortedComponents) {
+            int live = 0;
+            for (Component p : c.parents) {
+                if (up[p.id] != -1)
+                    live = live == 0 ? 1 : 2;
+            }
+            if (c.isLeaf || !c.partOfInternalNodes.isEmpty() || live > 1) {
+                up[c.id] = c.id;
+                kept++;
+            } else if (live == 0) {
+                up[c.id] = -1;
+                droppedCount++;
+            } else {
+                for (Component p : c.parents) {
+                    if (up[p.id] != -1)
+                        up[c.id] = up[p.id];
+                }
+                passedCount++;
+            }
+        }
+        up[sentinel.id] = sentinel.id;
+
+        this.parentStart = new int[size + 1];
+        this.childStart = new int[size + 1];
+        this.slotStart = new int[size + 1];
+        for (int c = 0; c < size; ++c) {
+            int degree = 0;
+            if (up[c] == c) {
+                for (Component p : byId[c].parents) {
+                    if (up[p.id] != -1)
+                        degree++;
+                }
+            }
+            parentStart[c + 1] = parentStart[c] + degree;
+            slotStart[c + 1] = slotStart[c] + byId[c].partOfInternalNodes.size();
+        }
+
+        this.parents = new int[parentStart[size]];
+        this.children = new int[parentStart[size]];
+        for (int c = 0; c < size; ++c) {
+            if (up[c] != c)
+                continue;
+            int k = parentStart[c];
+            for (Component p : byId[c].parents) {
+                if (up[p.id] != -1) {
+                    parents[k++] = up[p.id];
+                    childStart[up[p.id] + 1]++;
+                }
+            }
+        }
+        for (int c = 0; c < size; ++c)
+            childStart[c + 1] += childStart[c];
+        int[] next = Arrays.copyOf(childStart, size);
+        for (int c = 0; c < size; ++c) {
+            for (int k = parentStart[c]; k < parentStart[c + 1]; ++k)
+                children[next[parents[k]]++] = c;
+        }
+
+        int slotCount = slotStart[size];
+        this.slotNode = new int[slotCount];
+        this.slotIndex = new int[slotCount];
+        this.slotComponent = new int[slotCount];
+
+        this.nodes = internalNodes.toArray(new InternalNode[0]);
+        this.nodeSlotStart = new int[nodes.length + 1];
+        for (int i = 0; i < nodes.length; ++i)
+            nodeSlotStart[i + 1] = nodeSlotStart[i] + nodes[i].childs.length + 1;
+        this.nodeSlots = new int[nodeSlotStart[nodes.length]];
+
+        for (int i = 0; i < nodes.length; ++i) {
+            InternalNode node = nodes[i];
+            int k = nodeSlotStart[i];
+            for (int j = 0; j < node.childs.length; ++j)
+                nodeSlots[k++] = setSlot(node.childs[j], node.childrenIndicesInComponent[j], i);
+            nodeSlots[k] = setSlot(node.parent, node.parentIndexInComponent, i);
+        }
+
+        this.topOrder = new int[kept];
+        int k = 0;
+        for (Component c : topSortedComponents) {
+            if (up[c.id] == c.id)
+                topOrder[k++] = c.id;
+        }
+
+        this.queue = new int[size];
+        this.seen = new EpochMarks(size);
+
+        buildTaxonIndex(sentinel.id);
+    }
+
+    // the leaves of the taxa are the first components, the sentinel comes after them.
+    // below a component its children have no taxon in common, so a walk up from a leaf reaches every
+    // component above it once and through the only child with the taxon. that is checked as the index is made
+    private void buildTaxonIndex(int taxonCount) {
+        int[] position = new int[size];
+        for (int i = 0; i < topOrder.length; ++i)
+            position[topOrder[i]] = i;
+
+        long slotEntries = 0, ancestorEntries = 0;
+        int[] pathChild = new int[size];
+        int[][] slotsOf = new int[taxonCount][];
+        int[][] ancestorsOf = new int[taxonCount][];
+        int[][] pathChildOf = new int[taxonCount][];
+
+        for (int t = 0; t < taxonCount; ++t) {
+            newWalk();
+            visit(t);
+            int head = 0, tail = 0, slots = 0;
+            queue[tail++] = t;
+            while (head < tail) {
+                int f = queue[head++];
+                slots += slotStart[f + 1] - slotStart[f];
+                for (int k = parentStart[f]; k < parentStart[f + 1]; ++k) {
+                    if (!visit(parents[k]))
+                        return;
+                    pathChild[parents[k]] = f;
+                    queue[tail++] = parents[k];
+                }
+            }
+
+            slotEntries += slots;
+            ancestorEntries += tail - 1;
+            if (slotEntries + 2 * ancestorEntries > MAX_TAXON_INDEX_ENTRIES)
+                return;
+
+            slotsOf[t] = new int[slots];
+            for (int i = 0, s = 0; i < tail; ++i) {
+                for (int slot = slotStart[queue[i]]; slot < slotStart[queue[i] + 1]; ++slot)
+                    slotsOf[t][s++] = slot;
+            }
+
+            // sorted by position in the topological order, the queue holds the leaf first
+            long[] byPosition = new long[tail - 1];
+            for (int i = 1; i < tail; ++i)
+                byPosition[i - 1] = ((long) position[queue[i]] << 32) | queue[i];
+            Arrays.sort(byPosition);
+            ancestorsOf[t] = new int[byPosition.length];
+            pathChildOf[t] = new int[byPosition.length];
+            for (int i = 0; i < byPosition.length; ++i) {
+                ancestorsOf[t][i] = (int) byPosition[i];
+                pathChildOf[t][i] = pathChild[ancestorsOf[t][i]];
+            }
+        }
+
+        this.taxonSlotStart = new int[taxonCount + 1];
+        this.taxonSlots = new int[(int) slotEntries];
+        this.taxonStart = new int[taxonCount + 1];
+        this.taxonAncestors = new int[(int) ancestorEntries];
+        this.taxonPathChild = new int[(int) ancestorEntries];
+        for (int t = 0; t < taxonCount; ++t) {
+            taxonSlotStart[t + 1] = taxonSlotStart[t] + slotsOf[t].length;
+            System.arraycopy(slotsOf[t], 0, taxonSlots, taxonSlotStart[t], slotsOf[t].length);
+            taxonStart[t + 1] = taxonStart[t] + ancestorsOf[t].length;
+            System.arraycopy(ancestorsOf[t], 0, taxonAncestors, taxonStart[t], ancestorsOf[t].length);
+            System.arraycopy(pathChildOf[t], 0, taxonPathChild, taxonStart[t], pathChildOf[t].length);
+        }
+    }
+
+    public boolean hasTaxonIndex() {
+        return taxonSlots != null;
+    }
+
+    private int setSlot(Component c, int k, int node) {
+        int s = slotStart[c.id] + k;
+        slotNode[s] = node;
+        slotIndex[s] = c.partOfInternalNodes.get(k).index;
+        slotComponent[s] = c.id;
+        return s;
+    }
+
+    public int slotCount() {
+        return slotStart[size];
+    }
+
+    // starts a walk, no component is seen in it yet
+    public void newWalk() {
+        seen.newEpoch();
+    }
+
+    // true the first time c is seen in the walk
+    public boolean visit(int c) {
+        return seen.mark(c);
+    }
+}
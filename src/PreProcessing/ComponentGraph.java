@@ -1,21 +1,21 @@
 package src.PreProcessing;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Queue;
-import java.util.Set;
+import java.util.Arrays;
 
+import src.Utility;
 import src.Taxon.RealTaxon;
+import src.Taxon.TaxonSet;
+import src.Utility.LongPairIntMap;
 
 public class ComponentGraph {
     
 
     public RealTaxon[] taxa;
     public Component[] taxaPartitionNodes;
-    public Map<Component, boolean[]> realTaxaInComponent;
-    private Map<String, Component> stringIdToComponent;
+    // every component by the fingerprint of its taxa, the value is its id, its position in interned
+    private LongPairIntMap componentIndex;
+    private ArrayList<Component> interned;
 
     public ArrayList<Component> components;
 
@@ -28,28 +28,20 @@ public class ComponentGraph {
     public ComponentGraph(RealTaxon[] taxa){
         this.taxa = taxa;
         this.taxaPartitionNodes = new Component[taxa.length];
-        this.realTaxaInComponent = new HashMap<>();
-        this.stringIdToComponent = new HashMap<>();
+        this.componentIndex = new LongPairIntMap();
+        this.interned = new ArrayList<>();
         this.components = new ArrayList<>();
 
         for(int i = 0; i < taxa.length; ++i){
-            this.taxaPartitionNodes[i] = new Component(true);
-            boolean[] realTaxaInSubTree = new boolean[taxa.length];
-            realTaxaInSubTree[i] = true;
-            this.realTaxaInComponent.put(this.taxaPartitionNodes[i], realTaxaInSubTree);
-            this.stringIdToComponent.put(Utility.getComponentString(realTaxaInSubTree), this.taxaPartitionNodes[i]);
-            this.components.add(this.taxaPartitionNodes[i]);
-            this.taxaPartitionNodes[i].label = taxa[i].label;
-            this.taxaPartitionNodes[i].nodeCount = 1;
+            addLeaf(i);
         }
 
         this.sentinel = new Component(true);
         this.sentinel.setRealTaxaInComponent(
             new ArrayList<>()
         );
-        boolean[] realTaxaInSubTree = new boolean[taxa.length];
-        this.realTaxaInComponent.put(this.sentinel, realTaxaInSubTree);
-        this.stringIdToComponent.put(Utility.getComponentString(realTaxaInSubTree), this.sentinel);
+        this.sentinel.realTaxaSet = new TaxonSet(taxa.length);
+        intern(this.sentinel, 0, 0);
         this.sentinel.label = "";
         this.sentinel.nodeCount = 0;
 
@@ -57,6 +49,102 @@ public class ComponentGraph {
 
     }
 
+    private void addLeaf(int i){
+        this.taxaPartitionNodes[i] = new Component(true);
+        TaxonSet realTaxaInSubTree = new TaxonSet(taxa.length);
+        realTaxaInSubTree.add(i);
+        this.taxaPartitionNodes[i].realTaxaSet = realTaxaInSubTree;
+        intern(this.taxaPartitionNodes[i], Utility.taxonKeyHi(i), Utility.taxonKeyLo(i));
+        this.components.add(this.taxaPartitionNodes[i]);
+        this.taxaPartitionNodes[i].label = taxa[i].label;
+        this.taxaPartitionNodes[i].nodeCount = 1;
+    }
+
+    // adds the leaves of taxa[this.taxa.length ...], taxa starts with the taxa of the graph.
+    // the taxa sets of the graph are widened to the new taxon count, so the leaves come after the sentinel
+    // and other components, renumberTaxa puts them back in front
+    public void addTaxa(RealTaxon[] taxa){
+        int from = this.taxa.length;
+        if(taxa.length == from)
+            return;
+        if((taxa.length + 63) >>> 6 != (from + 63) >>> 6){
+            for(Component c : this.interned){
+                c.realTaxaSet = c.realTaxaSet.widened(taxa.length);
+            }
+        }
+        this.taxa = taxa;
+        this.taxaPartitionNodes = Arrays.copyOf(this.taxaPartitionNodes, taxa.length);
+        for(int i = from; i < taxa.length; ++i){
+            addLeaf(i);
+        }
+        count += taxa.length - from;
+    }
+
+    // renames taxon i to newId[i] once folding is over, and numbers the components as if the taxa had
+    // these ids from the start: the leaves by taxon id, the sentinel and then the other components in the
+    // order they were made. the internal nodes keep their keys by the old ids, so no more nodes are added
+    public void renumberTaxa(int[] newId, RealTaxon[] taxa){
+        Component[] leaves = new Component[taxa.length];
+        for(int i = 0; i < newId.length; ++i){
+            leaves[newId[i]] = this.taxaPartitionNodes[i];
+        }
+
+        ArrayList<Component> made = new ArrayList<>();
+        for(Component c : this.components){
+            if(!c.isLeaf)
+                made.add(c);
+        }
+
+        this.taxa = taxa;
+        this.taxaPartitionNodes = leaves;
+        this.components = new ArrayList<>(Arrays.asList(leaves));
+        this.components.addAll(made);
+
+        ArrayList<Component> order = new ArrayList<>(this.components.size() + 1);
+        order.addAll(Arrays.asList(leaves));
+        order.add(this.sentinel);
+        order.addAll(made);
+
+        this.componentIndex = new LongPairIntMap();
+        this.interned = new ArrayList<>();
+        for(Component c : order){
+            c.realTaxaSet = c.realTaxaSet.renamed(newId, taxa.length);
+            intern(c, c.realTaxaSet.fingerprintHi(), c.realTaxaSet.fingerprintLo());
+        }
+    }
+
+    // the component with exactly these taxa, or null. only reads, so it can run on several threads while
+    // nothing is added
+    Component find(TaxonSet set, long hi, long lo){
+        for(int slot = componentIndex.find(hi, lo); slot != -1; slot = componentIndex.findNext(hi, lo, slot)){
+            Component c = this.interned.get(componentIndex.valueAt(slot));
+            if(c.realTaxaSet.equals(set)){
+                return c;
+            }
+        }
+        return null;
+    }
+
+    // the component with the taxa of a less those of b, found by the difference of their fingerprints
+    // without building the set
+    private Component findDifference(TaxonSet a, TaxonSet b, long hi, long lo){
+        for(int slot = componentIndex.find(hi, lo); slot != -1; slot = componentIndex.findNext(hi, lo, slot)){
+            Component c = this.interned.get(componentIndex.valueAt(slot));
+            if(c.realTaxaSet.isDifference(a, b)){
+                return c;
+            }
+        }
+        return null;
+    }
+
+    private void intern(Component c, long hi, long lo){
+        c.id = this.interned.size();
+        c.fingerprintHi = hi;
+        c.fingerprintLo = lo;
+        componentIndex.add(hi, lo, this.interned.size());
+        this.interned.add(c);
+    }
+
     public Component getSentinel(){
         return this.sentinel;
     }
@@ -78,83 +166,50 @@ public class ComponentGraph {
     // }
 
 
-    public Component removeTaxa(Component c, Set<Integer> st){
-        boolean[] realTaxaInSubTree = this.realTaxaInComponent.get(c);
-        // create deep copy of real taxa in subtree
-        boolean[] b = new boolean[this.taxa.length];
-        for(int i = 0; i < this.taxa.length; ++i){
-            b[i] = realTaxaInSubTree[i];
-        }
-        for(int rtId: st){
-            b[rtId] = false;
-        }
-        String partitionString = Utility.getComponentString(b);
-        if(this.stringIdToComponent.containsKey(partitionString)){
-            return this.stringIdToComponent.get(partitionString);
-        }
-        ArrayList<Component> childs = new ArrayList<>();
-        for(var child : c.children){
-            Set<Integer> stForChild = new HashSet<>();
-            boolean[] realTaxaInChild = this.realTaxaInComponent.get(child);
-            for(int i = 0; i < this.taxa.length; ++i){
-                if(realTaxaInChild[i] && st.contains(i)){
-                    stForChild.add(i);
+    // the component of c without the taxa of st, made from the children of c without them.
+    // st must be a subset of the taxa of c
+    public Component removeTaxa(Component c, TaxonSet st){
+        Component result = findDifference(c.realTaxaSet, st, c.fingerprintHi - st.fingerprintHi(), c.fingerprintLo - st.fingerprintLo());
+        if(result == null){
+            ArrayList<Component> childs = new ArrayList<>();
+            for(var child : c.children){
+                if(child.realTaxaSet.intersects(st)){
+                    childs.add(removeTaxa(child, child.realTaxaSet.intersection(st)));
+                }
+                else{
+                    childs.add(child);
                 }
             }
-            if(stForChild.size() > 0){
-                childs.add(removeTaxa(child, stForChild));
-            }
-            else{
-                childs.add(child);
-            }
+            result = addComponent(childs);
         }
-        return addComponent(childs);
+        return result;
 
     }
 
     public Component removeTaxon(Component c, int rtId){
-        System.out.println("----------------------------------------------");
-        // if(c.isLeaf){
-        //     return sentinel;
-        // }
-
-        boolean[] realTaxaInSubTree = this.realTaxaInComponent.get(c);
-        // create deep copy of real taxa in subtree
-        boolean[] b = new boolean[this.taxa.length];
-        for(int i = 0; i < this.taxa.length; ++i){
-            b[i] = realTaxaInSubTree[i];
-        }
-        b[rtId] = false;
-        String partitionString = Utility.getComponentString(b);
-        if(this.stringIdToComponent.containsKey(partitionString)){
-            return this.stringIdToComponent.get(partitionString);
-        }
-
-        ArrayList<Component> childs = new ArrayList<>();
-        for(var child : c.children){
-            if(this.realTaxaInComponent.get(child)[rtId]){
-                childs.add(removeTaxon(child, rtId));
-            }
-            else{
-                childs.add(child);
-            }
-        }
-        return addComponent(childs);
+        TaxonSet st = new TaxonSet(this.taxa.length);
+        st.add(rtId);
+        return removeTaxa(c, st.intersection(c.realTaxaSet));
     }
 
     public Component addComponent(ArrayList<Component> childs){
-        boolean[] b = new boolean[this.taxa.length];
+        // the fingerprint of the union is summed from the children, less the taxa they share
+        TaxonSet b = new TaxonSet(this.taxa.length);
+        long hi = 0, lo = 0;
         for(Component child: childs){
-            boolean[] realTaxaInSubTree = this.realTaxaInComponent.get(child);
-            for(int i = 0; i < this.taxa.length; ++i){
-                b[i] = b[i] || realTaxaInSubTree[i];
+            if(b.intersects(child.realTaxaSet)){
+                TaxonSet common = child.realTaxaSet.intersection(b);
+                hi -= common.fingerprintHi();
+                lo -= common.fingerprintLo();
             }
+            hi += child.fingerprintHi;
+            lo += child.fingerprintLo;
+            b.addAll(child.realTaxaSet);
         }
 
-        String partitionString = Utility.getComponentString(b);
-        if(this.stringIdToComponent.containsKey(partitionString)){
+        Component node = find(b, hi, lo);
+        if(node != null){
             // System.out.println("-------here-----------");
-            Component node = this.stringIdToComponent.get(partitionString);
             // if(forGain){
             //     node.gainPartition = true;
             //     markChildsForGain(node);
@@ -191,30 +246,24 @@ public class ComponentGraph {
         else{
             Component component = new Component(false);
             childs.sort((c1, c2) -> -Integer.compare(c1.nodeCount, c2.nodeCount));
-            b = new boolean[this.taxa.length];
+            b = new TaxonSet(this.taxa.length);
 
             for(Component child: childs){
                 var childWithoutDup = child;
                 if(child != sentinel){
-                    boolean[] realTaxaInSubTree = this.realTaxaInComponent.get(child);
-                    Set<Integer> st = new HashSet<>();
-                    for(int i = 0; i < this.taxa.length; ++i){
-                        if(realTaxaInSubTree[i]){
-                            if(b[i]){
-                                // childWithoutDup = removeTaxon(child, i);
-                                st.add(i);
-                            }
-                            b[i] = true;
-                        }
+                    // taxa of this child already taken by a larger child
+                    TaxonSet st = child.realTaxaSet.intersection(b);
+                    b.addAll(child.realTaxaSet);
+                    if(!st.isEmpty()){
+                        childWithoutDup = removeTaxa(child, st);
                     }
-                    childWithoutDup = removeTaxa(child, st);
                     component.addChild(childWithoutDup);
                     component.nodeCount += childWithoutDup.nodeCount;
                     childWithoutDup.addParent(component);
                 }
             }
-            this.realTaxaInComponent.put(component, b);
-            this.stringIdToComponent.put(partitionString, component);
+            component.realTaxaSet = b;
+            intern(component, hi, lo);
             this.components.add(component);
             // if(forGain){
             //     partitionNode.onlyGainPartition = true;
@@ -239,63 +288,47 @@ public class ComponentGraph {
     //     }
     // }
 
+    // Kahn's algorithm, the roots in the order they were made and then first in first out
     public ArrayList<Component> getTopSortedNodes(){
-        ArrayList<Component> topSortedNodes = new ArrayList<>();
-        
-        Queue<Component> q = new java.util.LinkedList<>();
-        Map<Component, Integer> inDegree = new HashMap<>();
-        
+        ArrayList<Component> topSortedNodes = new ArrayList<>(this.components.size());
+        int[] inDegree = new int[this.interned.size()];
+
         for(Component partitionNode: this.components){
+            inDegree[partitionNode.id] = partitionNode.parents.size();
             if(partitionNode.parents.size() == 0){
-                q.add(partitionNode);
-            }
-            else{
-                inDegree.put(partitionNode, partitionNode.parents.size());
+                topSortedNodes.add(partitionNode);
             }
         }
 
-        while(!q.isEmpty()){
-            Component partitionNode = q.poll();
-            topSortedNodes.add(partitionNode);
-            for(Component child: partitionNode.children){
-                inDegree.put(child, inDegree.get(child) - 1);
-                if(inDegree.get(child) == 0){
-                    q.add(child);
+        // the list itself is the queue, the nodes before head have been taken from it
+        for(int head = 0; head < topSortedNodes.size(); ++head){
+            for(Component child: topSortedNodes.get(head).children){
+                if(--inDegree[child.id] == 0){
+                    topSortedNodes.add(child);
                 }
             }
         }
-        
-
 
         return topSortedNodes;
     }
 
 
-    boolean[] getRealTaxaInInternalNode(InternalNode internalNode){
-        boolean[] realTaxaInInternalNode = new boolean[this.taxa.length];
+    TaxonSet getRealTaxaInInternalNode(InternalNode internalNode){
+        TaxonSet realTaxaInInternalNode = new TaxonSet(this.taxa.length);
         for(var child: internalNode.childs){
-            boolean[] realTaxaInChild = this.realTaxaInComponent.get(child);
-            for(int i = 0; i < this.taxa.length; ++i){
-                realTaxaInInternalNode[i] = realTaxaInInternalNode[i] || realTaxaInChild[i];
-            }
+            realTaxaInInternalNode.addAll(child.realTaxaSet);
         }
         if (internalNode.parent != null){
-            boolean[] realTaxaInParent = this.realTaxaInComponent.get(internalNode.parent);
-            for(int i = 0; i < this.taxa.length; ++i){
-                realTaxaInInternalNode[i] = realTaxaInInternalNode[i] || realTaxaInParent[i];
-            }
+            realTaxaInInternalNode.addAll(internalNode.parent.realTaxaSet);
         }
         return realTaxaInInternalNode;
     }
 
     public ArrayList<RealTaxon> listrealTaxaInComponent(Component c){
         ArrayList<RealTaxon> list = new ArrayList<>();
-        boolean[] realTaxaInSubTree = this.realTaxaInComponent.get(c);
         // System.out.print("Component: ");
-        for(int i = 0; i < this.taxa.length; ++i){
-            if(realTaxaInSubTree[i]){
-                list.add(this.taxa[i]);
-            }
+        for(int i = c.realTaxaSet.nextSetBit(0); i != -1; i = c.realTaxaSet.nextSetBit(i + 1)){
+            list.add(this.taxa[i]);
         }
         return list;
     }
@@ -1,9 +0,0 @@
-package src.PreProcessing;
-
-import src.Tree.Branch;
-
-public class Data {
-    
-    // public double[] gainsForSubTree;
-    public Branch branch;
-}
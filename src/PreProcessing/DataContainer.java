@@ -3,20 +3,25 @@ package src.PreProcessing;
 import java.util.ArrayList;
 
 import src.Taxon.RealTaxon;
+import src.Taxon.TaxonSet;
 
 public class DataContainer {
 
     public ArrayList<InternalNode> internalNodes;
     public ArrayList<Component> topSortedComponents;
+    public ComponentDag dag;
     // public ArrayList<PartitionNode> topSortedForBranch;
     // public ArrayList<PartitionNode> topSortedForGain;
     public Component[] realTaxaComponents;
-    public boolean[][] realTaxaInTrees;
+    public TaxonSet[] realTaxaInTrees;
     public RealTaxon[] taxa;
 
     public ComponentGraph componentGraph;
     public Component sentinel;
 
+    // informative gene trees folded and the copies among them, both only counted with Config.DEDUPLICATE_GENE_TREES
+    public int geneTreeCount, duplicateGeneTreeCount;
+
     // public DataContainer(
     //     ArrayList<PartitionsByTreeNode> partitionsByTreeNodes, 
     //     ArrayList<PartitionNode> topSortedPartitionNodes, 
@@ -0,0 +1,65 @@
+package src.PreProcessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import src.Utility;
+import src.Utility.LongPairIntMap;
+
+// Gene trees folded into the data container so far, by their canonical form.
+// A tree that is the same as one folded before, up to the order of children, is not folded again,
+// it only adds its multiplicity to the counts of the internal nodes the first copy made.
+public class DistinctGeneTrees {
+
+    ArrayList<int[]> forms;
+    ArrayList<InternalNode[]> internalNodes;
+    LongPairIntMap index;
+
+    public int duplicateCount;
+    // trees with too few species or a zero weight, they are never folded
+    public int droppedCount;
+
+    public DistinctGeneTrees() {
+        this.forms = new ArrayList<>();
+        this.internalNodes = new ArrayList<>();
+        this.index = new LongPairIntMap();
+        this.duplicateCount = 0;
+        this.droppedCount = 0;
+    }
+
+    private static long fingerprintHi(int[] form) {
+        long h = form.length;
+        for (int x : form)
+            h = Utility.mix64(h + x);
+        return h;
+    }
+
+    private static long fingerprintLo(int[] form) {
+        long l = 0x9E3779B97F4A7C15L;
+        for (int x : form)
+            l = l * 0x100000001B3L + Utility.mix64(x);
+        return l;
+    }
+
+    // internal nodes of the tree with this form if one was added, null otherwise
+    public InternalNode[] find(int[] form) {
+        long hi = fingerprintHi(form), lo = fingerprintLo(form);
+        for (int slot = index.find(hi, lo); slot != -1; slot = index.findNext(hi, lo, slot)) {
+            int id = index.valueAt(slot);
+            if (Arrays.equals(forms.get(id), form))
+                return internalNodes.get(id);
+        }
+        return null;
+    }
+
+    // nodes holds an internal node once for every speciation node of the tree
+    public void add(int[] form, InternalNode[] nodes) {
+        index.add(fingerprintHi(form), fingerprintLo(form), forms.size());
+        forms.add(form);
+        internalNodes.add(nodes);
+    }
+
+    public int size() {
+        return forms.size();
+    }
+}
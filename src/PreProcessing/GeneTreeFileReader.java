@@ -0,0 +1,150 @@
+package src.PreProcessing;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+// Reads a gene tree file and parses it line by line on a pool of worker threads.
+// The file is cut into chunks at newline boundaries, every chunk is read and parsed by one task
+// and the results are concatenated in chunk order, so the output keeps the input order.
+// A worker reads its chunks with positional reads into one buffer of its own, reused for every chunk.
+public class GeneTreeFileReader {
+
+    public interface LineParser<T> {
+        // [from, to) is one line without its line terminator, returns null to skip the line.
+        // the buffer is reused for the next chunk, nothing returned may point into it
+        T parse(byte[] buffer, int from, int to);
+    }
+
+    static final long MIN_CHUNK_SIZE = 1L << 20;
+    static final long MAX_CHUNK_SIZE = 1L << 23;
+    static final int SCAN_WINDOW = 1 << 16;
+
+    // grown to the largest chunk the worker has read
+    private static final ThreadLocal<byte[]> CHUNK_BUFFER = ThreadLocal.withInitial(() -> new byte[0]);
+
+    // a few chunks per thread so that one long chunk does not hold up the rest
+    public static long chunkSize(long size, int threadCount) {
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (4L * threadCount)));
+    }
+
+    public static <T> ArrayList<T> parseLines(String path, int threadCount, LineParser<T> parser) throws IOException {
+        ArrayList<T> result = new ArrayList<>();
+        forEachChunk(path, threadCount, parser, result::addAll);
+        return result;
+    }
+
+    // hands the parsed lines of every chunk to consumer, in file order and on the calling thread.
+    // at most 2 * threadCount chunks are parsed ahead of the consumer, which bounds the memory
+    // held by parsed but not yet consumed lines.
+    public static <T> void forEachChunk(String path, int threadCount, LineParser<T> parser, Consumer<ArrayList<T>> consumer) throws IOException {
+
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            ArrayList<long[]> chunks = splitAtLines(channel, size, chunkSize(size, threadCount));
+
+            ExecutorService pool = Executors.newFixedThreadPool(threadCount);
+            try {
+                ArrayDeque<Future<ArrayList<T>>> pending = new ArrayDeque<>();
+                int next = 0;
+                while (next < chunks.size() || !pending.isEmpty()) {
+                    while (next < chunks.size() && pending.size() < 2 * threadCount) {
+                        long[] chunk = chunks.get(next++);
+                        pending.add(pool.submit(() -> parseChunk(channel, chunk[0], chunk[1], parser)));
+                    }
+                    consumer.accept(pending.poll().get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while parsing " + path, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException)
+                    throw (IOException) cause;
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                throw new RuntimeException(cause);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+    }
+
+    static ArrayList<long[]> splitAtLines(FileChannel channel, long size, long chunkSize) throws IOException {
+        ArrayList<long[]> chunks = new ArrayList<>();
+        long start = 0;
+        while (start < size) {
+            long end = start + chunkSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = nextLineStart(channel, end, size);
+            }
+            chunks.add(new long[] { start, end });
+            start = end;
+        }
+        return chunks;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer window = ByteBuffer.allocate(SCAN_WINDOW);
+        while (position < size) {
+            window.clear();
+            int read = channel.read(window, position);
+            if (read <= 0)
+                break;
+            for (int i = 0; i < read; ++i) {
+                if (window.get(i) == '\n') {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static <T> ArrayList<T> parseChunk(FileChannel channel, long start, long end, LineParser<T> parser) throws IOException {
+        int n = (int) (end - start);
+        byte[] buffer = CHUNK_BUFFER.get();
+        if (buffer.length < n) {
+            buffer = new byte[n];
+            CHUNK_BUFFER.set(buffer);
+        }
+        ByteBuffer target = ByteBuffer.wrap(buffer, 0, n);
+        long position = start;
+        while (target.hasRemaining()) {
+            int read = channel.read(target, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of file at " + position);
+            position += read;
+        }
+
+        ArrayList<T> result = new ArrayList<>();
+        int lineStart = 0;
+        while (lineStart < n) {
+            int lineEnd = lineStart;
+            while (lineEnd < n && buffer[lineEnd] != '\n') {
+                ++lineEnd;
+            }
+            int to = lineEnd;
+            if (to > lineStart && buffer[to - 1] == '\r') {
+                --to;
+            }
+            T parsed = parser.parse(buffer, lineStart, to);
+            if (parsed != null) {
+                result.add(parsed);
+            }
+            lineStart = lineEnd + 1;
+        }
+        return result;
+    }
+}
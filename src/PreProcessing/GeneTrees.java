@@ -2,159 +2,264 @@ package src.PreProcessing;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
 
 import src.Config;
 import src.Quartets.QuartestsList;
 import src.Taxon.RealTaxon;
+import src.Taxon.TaxonLabelTable;
+import src.Taxon.TaxonSet;
 import src.Tree.Tree;
 import src.Tree.TreeNode;
+import src.Tree.TriPartitions;
 
 public class GeneTrees {
 
+    // trees whose lookups are done together before they are folded
+    static final int FOLD_BATCH_SIZE = 1024;
+
     public ArrayList<Tree> geneTrees;
     public String[] taxonIdToLabel;
     public RealTaxon[] taxa;
-    public Map<String, TreeNode> triPartitions;
+    public TriPartitions triPartitions;
+    // set up once the taxa are known when Config.COMPUTE_CONSENSUS is on, null otherwise
+    public GreedyConsensus consensus;
     public Map<String, RealTaxon> taxaMap;
     public int realTaxaCount;
     public String path;
 
-    private void parseTaxaWithDuplicationMarker(String newickLine, Set<String> taxaSet) {
-        newickLine.replaceAll("\\s", "");
-
-        int n = newickLine.length();
+    // sort the taxa by their labels to assign consistent IDs
+    // if the taxa are numeric labels, then sort them in numeric order
+    private void assignTaxonIds(Map<String, RealTaxon> internedTaxa) {
+        boolean allNumeric = true;
+        for (String taxon : internedTaxa.keySet()) {
+            if (!taxon.matches("\\d+")) {
+                allNumeric = false;
+                break;
+            }
+        }
+        ArrayList<String> sortedTaxa = new ArrayList<>(internedTaxa.keySet());
+        if (allNumeric) {
+            sortedTaxa.sort((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
+        } else {
+            sortedTaxa.sort((a, b) -> a.compareTo(b));
+        }
 
-        int i = 0, j = 0;
+        // the leaves already point to these objects, so only the ids need to change
+        this.taxaMap = new HashMap<>();
+        this.taxonIdToLabel = new String[sortedTaxa.size()];
+        this.taxa = new RealTaxon[sortedTaxa.size()];
+        this.realTaxaCount = sortedTaxa.size();
 
-        while (i < n) {
-            char curr = newickLine.charAt(i);
-            if (curr == '(') {
-            } else if (curr == ')') {
-                if (i + 1 < n && newickLine.charAt(i + 1) == 'D') {
-                    ++i;
-                }
-            } else if (curr == ',' || curr == ';') {
+        int id = 0;
+        for (var x : sortedTaxa) {
+            RealTaxon taxon = internedTaxa.get(x);
+            taxon.id = id++;
+            taxaMap.put(x, taxon);
+            taxonIdToLabel[taxon.id] = x;
+            taxa[taxon.id] = taxon;
+        }
 
-            } else {
-                StringBuilder taxa = new StringBuilder();
-                j = i;
-                while (j < n) {
-                    char curr_j = newickLine.charAt(j);
-                    if (curr_j == ')' || curr_j == ',') {
-                        String label = taxa.toString();
-                        taxaSet.add(label);
-                        break;
-                    }
-                    taxa.append(curr_j);
-                    ++j;
-                }
-                if (j == n) {
-                    String label = taxa.toString();
-                    taxaSet.add(label);
-                }
-                i = j - 1;
-            }
-            ++i;
+        if (Config.COMPUTE_CONSENSUS) {
+            this.consensus = new GreedyConsensus(this.taxa);
         }
     }
 
-    private void parseTaxa(String newickLine, Set<String> taxaSet) {
-        newickLine.replaceAll("\\s", "");
-
-        int n = newickLine.length();
+    // work on a single tree that touches no shared state, safe to run on several trees at once
+    private void prepareGeneTree(Tree tree, InternodeDistances distances) {
+        if (Config.RESOLVE_POLYTOMY) {
+            tree.resolveNonBinary(distances);
+        }
 
-        int i = 0, j = 0;
+        if (Config.REROOT_GENE_TREES) {
+            tree.rerootMinDuplications();
+        }
+    }
 
-        while (i < n) {
-            char curr = newickLine.charAt(i);
-            if (curr == '(') {
-            } else if (curr == ')') {
-            } else if (curr == ',' || curr == ';') {
+    private void prepareGeneTrees(InternodeDistances distances) {
+        if (!Config.RESOLVE_POLYTOMY && !Config.REROOT_GENE_TREES)
+            return;
 
-            } else {
-                StringBuilder taxa = new StringBuilder();
-                j = i;
-                while (j < n) {
-                    char curr_j = newickLine.charAt(j);
-                    if (curr_j == ')' || curr_j == ',') {
-                        String label = taxa.toString();
-                        taxaSet.add(label);
-                        break;
-                    }
-                    taxa.append(curr_j);
-                    ++j;
-                }
-                if (j == n) {
-                    String label = taxa.toString();
-                    taxaSet.add(label);
-                }
-                i = j - 1;
-            }
-            ++i;
+        ForkJoinPool pool = new ForkJoinPool(Config.NUM_THREADS);
+        try {
+            pool.submit(() -> geneTrees.parallelStream().forEach(tree -> prepareGeneTree(tree, distances))).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
         }
     }
 
-    public Map<String, RealTaxon> readTaxaNames() throws FileNotFoundException {
-        Set<String> taxaSet = new HashSet<>();
+    // the tripartition map keeps a node of every distinct tripartition, so it is skipped when streaming
+    private void processGeneTree(Tree tree, boolean countTriPartitions) {
+        if (countTriPartitions) {
+            tree.calculateFrequencies(triPartitions);
+        }
+        if (!Config.USE_EXTERNAL_TAGGING) {
+            tree.tag();
+        }
 
-        Scanner scanner = new Scanner(new File(this.path));
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            if (line.trim().length() == 0)
-                continue;
-            if (Config.USE_EXTERNAL_TAGGING) {
-                parseTaxaWithDuplicationMarker(line, taxaSet);
-            } else {
-                parseTaxa(line, taxaSet);
-            }
+        if (tree.checkIfNonBinary()) {
+            System.out.println("============ Non binary gt ===================");
         }
-        scanner.close();
+    }
 
-        // sort the taxa by their labels to assign consistent IDs
-        // if the taxa are numeric labels, then sort them in numeric order
-        boolean allNumeric = true;
-        for (String taxon : taxaSet) {
-            if (!taxon.matches("\\d+")) {
-                allNumeric = false;
-                break;
-            }
+    private static boolean isBlank(byte[] buffer, int from, int to) {
+        for (int i = from; i < to; ++i) {
+            if (buffer[i] > ' ')
+                return false;
         }
-        ArrayList<String> sortedTaxa = new ArrayList<>(taxaSet);
-        if (allNumeric) {
-            sortedTaxa.sort((a, b) -> Integer.compare(Integer.parseInt(a), Integer.parseInt(b)));
-        } else {
-            sortedTaxa.sort((a, b) -> a.compareTo(b));
+        return true;
+    }
+
+    // reads the gene trees in a single pass, interning taxa while the trees are built
+    // the lines are parsed in parallel, the tree order of the file is preserved
+    public Map<String, RealTaxon> readTaxaAndGeneTrees(InternodeDistances distances) throws IOException {
+        TaxonLabelTable labelTable = new TaxonLabelTable(true);
+
+        geneTrees.addAll(GeneTreeFileReader.parseLines(this.path, Config.NUM_THREADS, (buffer, from, to) -> {
+            if (isBlank(buffer, from, to))
+                return null;
+            return new Tree(buffer, from, to, labelTable);
+        }));
+
+        assignTaxonIds(labelTable.toMap());
+
+        for (Tree tree : geneTrees) {
+            tree.taxaMap = this.taxaMap;
+            tree.updateTaxaInTree();
         }
 
-        this.taxaMap = new HashMap<>();
-        for (var x : sortedTaxa) {
-            RealTaxon taxon = new RealTaxon(x);
-            taxaMap.put(x, taxon);
+        if (Config.RESOLVE_POLYTOMY && distances == null) {
+            distances = InternodeDistances.averageOver(geneTrees, this.realTaxaCount, Config.NUM_THREADS);
         }
 
-        this.taxonIdToLabel = new String[this.taxaMap.size()];
-        this.taxa = new RealTaxon[this.taxaMap.size()];
-        this.realTaxaCount = this.taxaMap.size();
+        prepareGeneTrees(distances);
 
-        for (var x : sortedTaxa) {
-            taxonIdToLabel[taxaMap.get(x).id] = x;
-            taxa[taxaMap.get(x).id] = taxaMap.get(x);
+        for (Tree tree : geneTrees) {
+            processGeneTree(tree, true);
+            if (consensus != null)
+                consensus.addGeneTree(tree);
         }
 
         return taxaMap;
     }
 
-    public void readGeneTrees(double[][] distanceMatrix) throws FileNotFoundException {
+    // builds the data container without keeping the gene trees, in a single pass over the file.
+    // every tree is folded into the component graph and internal nodes as soon as it is parsed and tagged,
+    // and then dropped. taxa are folded under the ids they get as they are first seen, the graph grows a leaf
+    // for every new one, and once the file is read the graph is renumbered to the sorted ids.
+    // the consensus and the resolution of polytomies need the final ids while the trees are read, so with
+    // them a first pass only collects the labels, and the distances take a pass of their own
+    public DataContainer streamDataContainer(InternodeDistances distances) throws IOException {
+        TaxonLabelTable labelTable = new TaxonLabelTable(true);
+        boolean idsFirst = Config.COMPUTE_CONSENSUS || Config.RESOLVE_POLYTOMY;
+
+        ComponentGraph compGraph;
+        if (idsFirst) {
+            GeneTreeFileReader.parseLines(this.path, Config.NUM_THREADS, (buffer, from, to) -> {
+                if (!isBlank(buffer, from, to))
+                    Tree.internLeafLabels(buffer, from, to, labelTable);
+                return null;
+            });
+
+            assignTaxonIds(labelTable.toMap());
+
+            if (Config.RESOLVE_POLYTOMY && distances == null) {
+                distances = streamInternodeDistances(labelTable);
+            }
+            compGraph = createPartitionGraph();
+        } else {
+            compGraph = new ComponentGraph(new RealTaxon[0]);
+        }
+        InternodeDistances resolveDistances = distances;
+
+        InternalNodes internalNodes = new InternalNodes();
+        DistinctGeneTrees distinct = new DistinctGeneTrees();
+        ArrayList<TaxonSet> realTaxaInTrees = new ArrayList<>();
+
+        GeneTreeFileReader.forEachChunk(this.path, Config.NUM_THREADS, (buffer, from, to) -> {
+            if (isBlank(buffer, from, to))
+                return null;
+            Tree tree = new Tree(buffer, from, to, labelTable);
+            tree.taxaMap = this.taxaMap;
+            if (isInformative(tree)) {
+                prepareGeneTree(tree, resolveDistances);
+                processGeneTree(tree, false);
+            }
+            return tree;
+        }, trees -> {
+            // the taxa of these trees were added to the label table when they were parsed
+            if (!idsFirst)
+                compGraph.addTaxa(labelTable.internedTaxa());
+            foldGeneTrees(trees, compGraph, internalNodes, distinct, realTaxaInTrees);
+            if (consensus != null) {
+                for (Tree tree : trees) {
+                    if (isInformative(tree))
+                        consensus.addGeneTree(tree);
+                }
+            }
+        });
+
+        if (!idsFirst) {
+            RealTaxon[] folded = labelTable.internedTaxa();
+            assignTaxonIds(labelTable.toMap());
+            int[] newId = new int[folded.length];
+            for (int i = 0; i < folded.length; ++i) {
+                newId[i] = folded[i].id;
+            }
+            compGraph.renumberTaxa(newId, this.taxa);
+            for (int i = 0; i < realTaxaInTrees.size(); ++i) {
+                realTaxaInTrees.set(i, realTaxaInTrees.get(i).renamed(newId, this.realTaxaCount));
+            }
+        }
+
+        printFoldedTrees(distinct);
+        return buildDataContainer(compGraph, internalNodes, realTaxaInTrees.toArray(new TaxonSet[0]), distinct);
+    }
+
+    // an extra pass over the file that only sums the distances, the trees are dropped right away
+    private InternodeDistances streamInternodeDistances(TaxonLabelTable labelTable) throws IOException {
+        // the parsing threads share as many matrices as fit in the heap, a tree is parsed before one is taken
+        InternodeDistances.Pool pool = new InternodeDistances.Pool(this.realTaxaCount,
+            InternodeDistances.copiesThatFit(this.realTaxaCount, Config.NUM_THREADS));
+
+        GeneTreeFileReader.parseLines(this.path, Config.NUM_THREADS, (buffer, from, to) -> {
+            if (isBlank(buffer, from, to))
+                return null;
+            Tree tree = new Tree(buffer, from, to, labelTable);
+            InternodeDistances distances = pool.take();
+            distances.addTree(tree);
+            pool.give(distances);
+            return null;
+        });
+
+        return pool.sum();
+    }
+
+    private TaxonSet realTaxaInTree(Tree tree, int taxonCount) {
+        TaxonSet present = new TaxonSet(taxonCount);
+        for (int id : tree.taxaInTreeIds) {
+            present.add(id);
+        }
+        return present;
+    }
+
+    public void readGeneTrees(InternodeDistances distances) throws FileNotFoundException {
         // int internalNodesCount = 0;
         // QuartestsList quartestsList = new QuartestsList(this.taxaMap.size());
 
         Scanner scanner = new Scanner(new File(path));
+        TaxonLabelTable labelTable = TaxonLabelTable.fromMap(this.taxaMap);
 
         while (scanner.hasNextLine()) {
 
@@ -163,11 +268,11 @@ public class GeneTrees {
             if (line.trim().length() == 0)
                 continue;
 
-            var tree = new Tree(line, this.taxaMap);
+            byte[] newick = line.getBytes(StandardCharsets.UTF_8);
+            var tree = new Tree(newick, 0, newick.length, labelTable);
+            tree.taxaMap = this.taxaMap;
 
-            if (Config.RESOLVE_POLYTOMY) {
-                tree.resolveNonBinary(distanceMatrix);
-            }
+            prepareGeneTree(tree, distances);
 
             // System.out.println(tree.root);
 
@@ -245,39 +350,95 @@ public class GeneTrees {
 
     }
 
-    public QuartestsList readGeneTreesAndGenerateQuartets() throws FileNotFoundException {
+    public QuartestsList generateQuartets() {
         QuartestsList quartetsList = new QuartestsList(this.taxaMap.size());
 
-        Scanner scanner = new Scanner(new File(path));
+        for (Tree tree : geneTrees) {
+            tree.generateQuartets(quartetsList);
+        }
 
-        while (scanner.hasNextLine()) {
-            String line = scanner.nextLine();
-            if (line.trim().length() == 0)
-                continue;
+        return quartetsList;
+    }
+
+    public DataContainer createDateContainer() {
+        ComponentGraph compGraph = createPartitionGraph();
+        InternalNodes internalNodes = new InternalNodes();
+        DistinctGeneTrees distinct = new DistinctGeneTrees();
+        ArrayList<TaxonSet> realTaxaInTrees = new ArrayList<>();
+
+        foldGeneTrees(geneTrees, compGraph, internalNodes, distinct, realTaxaInTrees);
+
+        printFoldedTrees(distinct);
+        return buildDataContainer(compGraph, internalNodes, realTaxaInTrees.toArray(new TaxonSet[0]), distinct);
+    }
 
-            var tree = new Tree(line, this.taxaMap);
+    // a tree with fewer species than a quartet has no quartet to add
+    private static boolean isInformative(Tree tree) {
+        return tree.multiplicity > 0 && tree.taxaInTreeIds.size() >= Config.MIN_SPECIES_PER_TREE;
+    }
 
-            if (Config.RESOLVE_POLYTOMY) {
-                tree.resolveNonBinary(null);
+    // folds the trees in order, with the lookups for all of them done first on Config.NUM_THREADS threads.
+    // adds the taxa of every tree folded as a new tree to realTaxaInTrees
+    private void foldGeneTrees(List<Tree> trees, ComponentGraph componentGraph, InternalNodes internalNodes,
+            DistinctGeneTrees distinct, ArrayList<TaxonSet> realTaxaInTrees) {
+        for (int from = 0; from < trees.size(); from += FOLD_BATCH_SIZE) {
+            List<Tree> batch = trees.subList(from, Math.min(trees.size(), from + FOLD_BATCH_SIZE));
+            TreeFoldPlan[] plans = new TreeFoldPlan[batch.size()];
+
+            ForkJoinPool pool = new ForkJoinPool(Config.NUM_THREADS);
+            try {
+                pool.submit(() -> IntStream.range(0, plans.length).parallel().forEach(i -> {
+                    if (isInformative(batch.get(i)))
+                        plans[i] = new TreeFoldPlan(batch.get(i), componentGraph, internalNodes, distinct);
+                })).get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            } finally {
+                pool.shutdown();
             }
 
-            tree.calculateFrequencies(triPartitions);
-            if (!Config.USE_EXTERNAL_TAGGING) {
-                tree.tag();
+            for (int i = 0; i < plans.length; ++i) {
+                if (foldGeneTree(batch.get(i), componentGraph, internalNodes, distinct, plans[i]))
+                    realTaxaInTrees.add(realTaxaInTree(batch.get(i), componentGraph.taxa.length));
             }
-            geneTrees.add(tree);
+        }
+    }
 
-            tree.generateQuartets(quartetsList);
+    // folds the tree into the graph and internal nodes, unless it is uninformative or the same as a tree
+    // folded before, in which case only the counts of that tree's internal nodes go up.
+    // returns true if the tree was folded as a new tree
+    private boolean foldGeneTree(Tree tree, ComponentGraph componentGraph, InternalNodes internalNodes,
+            DistinctGeneTrees distinct, TreeFoldPlan plan) {
+        if (!isInformative(tree)) {
+            distinct.droppedCount++;
+            return false;
+        }
+        if (!Config.DEDUPLICATE_GENE_TREES) {
+            addTreeToPartitions(tree, componentGraph, internalNodes, plan);
+            return true;
         }
 
-        scanner.close();
+        int[] form = plan.form;
+        // a copy of a tree earlier in the same batch is only found now
+        InternalNode[] seen = plan.seen != null ? plan.seen : distinct.find(form);
+        if (seen != null) {
+            for (var node : seen) {
+                node.increaseCount(tree.multiplicity);
+            }
+            distinct.duplicateCount++;
+            return false;
+        }
+        distinct.add(form, addTreeToPartitions(tree, componentGraph, internalNodes, plan));
+        return true;
+    }
 
-        return quartetsList;
+    private static void printFoldedTrees(DistinctGeneTrees distinct) {
+        System.out.println("Gene trees folded : " + (distinct.size() + distinct.duplicateCount) + ", distinct : "
+                + distinct.size() + ", dropped : " + distinct.droppedCount);
     }
 
-    public DataContainer createDateContainer() {
-        ComponentGraph compGraph = createPartitionGraph();
-        InternalNodes internalNodes = createPartitionsByTreeNode(compGraph);
+    private DataContainer buildDataContainer(ComponentGraph compGraph, InternalNodes internalNodes, TaxonSet[] realTaxaInTrees,
+            DistinctGeneTrees distinct) {
 
         // System.out.println("Partition graph created");
         // System.out.println("Partition graph nodes count : " + partitionGraph.count);
@@ -331,18 +492,18 @@ public class GeneTrees {
         // }
 
         dataContainer.realTaxaComponents = compGraph.taxaPartitionNodes;
-        dataContainer.realTaxaInTrees = new boolean[geneTrees.size()][];
-        for (int i = 0; i < geneTrees.size(); ++i) {
-            dataContainer.realTaxaInTrees[i] = new boolean[this.realTaxaCount];
-            for (int j = 0; j < this.realTaxaCount; ++j) {
-                dataContainer.realTaxaInTrees[i][j] = geneTrees.get(i).isTaxonPresent(i);
-            }
-        }
+        dataContainer.realTaxaInTrees = realTaxaInTrees;
         dataContainer.taxa = this.taxa;
         dataContainer.sentinel = compGraph.getSentinel();
+        dataContainer.geneTreeCount = distinct.size() + distinct.duplicateCount;
+        dataContainer.duplicateGeneTreeCount = distinct.duplicateCount;
+        dataContainer.dag = new ComponentDag(dataContainer.topSortedComponents, dataContainer.sentinel,
+                dataContainer.internalNodes);
 
         System.out.println("Comp graph nodes count : " + compGraph.count);
         System.out.println("Internal nodes count : " + internalNodes.nodes.size());
+        System.out.println("Components searched : " + dataContainer.dag.topOrder.length + ", without slots left out : "
+                + dataContainer.dag.droppedCount + ", passed through : " + dataContainer.dag.passedCount);
         // System.out.println("Partition Graph Branch nodes : " +
         // dataContainer.topSortedForBranch.size());
         // System.out.println("Partition Graph Gain nodes : " +
@@ -370,81 +531,105 @@ public class GeneTrees {
 
     // }
 
-    void calculateSpeciationParentComponents(TreeNode node, Component last, ComponentGraph componentGraph) {
-        if (node.isLeaf())
-            return;
+    // pre order walk, so the components are added in the same order as a recursive walk would add them
+    void calculateSpeciationParentComponents(Tree tree, ComponentGraph componentGraph, TreeFoldPlan plan) {
+        // speciation parent component handed down to each node
+        Component[] lastOfNode = new Component[tree.nodes.size()];
+        lastOfNode[tree.root.index] = componentGraph.getSentinel();
 
-        Component lastc0 = last;
-        Component lastc1 = last;
+        for (int index : tree.preOrder(tree.root)) {
+            TreeNode node = tree.nodes.get(index);
+            if (node.isLeaf())
+                continue;
 
-        var c0 = node.childs.get(0);
-        var c1 = node.childs.get(1);
+            Component last = lastOfNode[index];
+            Component lastc0 = last;
+            Component lastc1 = last;
 
-        if (!node.dupplicationNode) {
+            var c0 = node.childs.get(0);
+            var c1 = node.childs.get(1);
 
-            node.speciationParentComponent = last;
-            ArrayList<Component> compsc0 = new ArrayList<>();
-            compsc0.add(last);
-            compsc0.add(c1.childComponent);
+            if (!node.dupplicationNode) {
 
-            ArrayList<Component> compsc1 = new ArrayList<>();
-            compsc1.add(last);
-            compsc1.add(c0.childComponent);
+                node.speciationParentComponent = last;
+                ArrayList<Component> compsc0 = new ArrayList<>();
+                compsc0.add(last);
+                compsc0.add(c1.childComponent);
 
-            lastc0 = componentGraph.addComponent(compsc0);
-            lastc1 = componentGraph.addComponent(compsc1);
-        }
+                ArrayList<Component> compsc1 = new ArrayList<>();
+                compsc1.add(last);
+                compsc1.add(c0.childComponent);
 
-        calculateSpeciationParentComponents(c0, lastc0, componentGraph);
-        calculateSpeciationParentComponents(c1, lastc1, componentGraph);
+                lastc0 = plan != null && plan.lastComponents[c0.index] != null ? plan.lastComponents[c0.index]
+                        : componentGraph.addComponent(compsc0);
+                lastc1 = plan != null && plan.lastComponents[c1.index] != null ? plan.lastComponents[c1.index]
+                        : componentGraph.addComponent(compsc1);
+            }
+
+            lastOfNode[c0.index] = lastc0;
+            lastOfNode[c1.index] = lastc1;
+        }
 
     }
 
     public InternalNodes createPartitionsByTreeNode(ComponentGraph componentGraph) {
-        InternalNodes internalNodes = new InternalNodes(componentGraph.realTaxaInComponent);
+        InternalNodes internalNodes = new InternalNodes();
 
         for (Tree tree : geneTrees) {
-            for (TreeNode node : tree.topSortedNodes) {
-                if (node.isLeaf()) {
-                    node.childComponent = componentGraph.taxaPartitionNodes[node.taxon.id];
-                } else {
-                    ArrayList<Component> childs = new ArrayList<>();
-                    for (TreeNode child : node.childs) {
-                        childs.add(child.childComponent);
-                    }
-                    node.childComponent = componentGraph.addComponent(childs);
+            addTreeToPartitions(tree, componentGraph, internalNodes, null);
+        }
+
+        return internalNodes;
+    }
+
+    // returns the internal node of every speciation node of the tree.
+    // what the plan found is used as it is, the rest is made, plan may be null
+    private InternalNode[] addTreeToPartitions(Tree tree, ComponentGraph componentGraph, InternalNodes internalNodes,
+            TreeFoldPlan plan) {
+        ArrayList<InternalNode> added = new ArrayList<>();
+        for (TreeNode node : tree.topSortedNodes) {
+            if (node.isLeaf()) {
+                node.childComponent = componentGraph.taxaPartitionNodes[node.taxon.id];
+            } else if (plan != null && plan.childComponents[node.index] != null) {
+                node.childComponent = plan.childComponents[node.index];
+            } else {
+                ArrayList<Component> childs = new ArrayList<>();
+                for (TreeNode child : node.childs) {
+                    childs.add(child.childComponent);
                 }
+                node.childComponent = componentGraph.addComponent(childs);
             }
+        }
 
-            calculateSpeciationParentComponents(tree.root, componentGraph.getSentinel(), componentGraph);
-
-            for (int i = tree.topSortedNodes.size() - 1; i > -1; --i) {
-                TreeNode node = tree.topSortedNodes.get(i);
+        calculateSpeciationParentComponents(tree, componentGraph, plan);
 
-                if (node.isLeaf())
-                    continue;
+        for (int i = tree.topSortedNodes.size() - 1; i > -1; --i) {
+            TreeNode node = tree.topSortedNodes.get(i);
 
-                if (!node.dupplicationNode) {
-                    Component[] childComps = new Component[node.childs.size()];
-                    for (int j = 0; j < node.childs.size(); ++j) {
-                        childComps[j] = node.childs.get(j).childComponent;
-                    }
-                    internalNodes.addInternalNode(childComps, node.speciationParentComponent);
+            if (node.isLeaf())
+                continue;
 
-                    // System.out.println( "node : " + node.index + " partition: " + x);
+            if (!node.dupplicationNode && plan != null && plan.internalNodes[node.index] != null) {
+                plan.internalNodes[node.index].increaseCount(tree.multiplicity);
+                added.add(plan.internalNodes[node.index]);
+            } else if (!node.dupplicationNode) {
+                Component[] childComps = new Component[node.childs.size()];
+                for (int j = 0; j < node.childs.size(); ++j) {
+                    childComps[j] = node.childs.get(j).childComponent;
                 }
+                added.add(internalNodes.addInternalNode(childComps, node.speciationParentComponent, tree.multiplicity));
 
-                // System.out.println("node index : " + node.index + " tree index : " +
-                // treeIndex);
-                // System.out.println("common with parent: " + node.commonWithParent);
-                // System.out.println( "distict from parent: " + node.distinctWithParent);
-                // System.out.println("parent distincts : " + node.parentDistinct);
-
+                // System.out.println( "node : " + node.index + " partition: " + x);
             }
 
-        }
+            // System.out.println("node index : " + node.index + " tree index : " +
+            // treeIndex);
+            // System.out.println("common with parent: " + node.commonWithParent);
+            // System.out.println( "distict from parent: " + node.distinctWithParent);
+            // System.out.println("parent distincts : " + node.parentDistinct);
 
-        return internalNodes;
+        }
+        return added.toArray(new InternalNode[0]);
     }
 
     public ComponentGraph createPartitionGraph() {
@@ -455,14 +640,14 @@ public class GeneTrees {
     public GeneTrees(String path) throws FileNotFoundException {
 
         this.geneTrees = new ArrayList<>();
-        this.triPartitions = new HashMap<>();
+        this.triPartitions = new TriPartitions();
         this.path = path;
     }
 
     public GeneTrees(String path, Map<String, RealTaxon> taxaMap) throws FileNotFoundException {
 
         this.geneTrees = new ArrayList<>();
-        this.triPartitions = new HashMap<>();
+        this.triPartitions = new TriPartitions();
         this.path = path;
         this.taxaMap = taxaMap;
 
@@ -0,0 +1,388 @@
+package src.PreProcessing;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import src.Utility;
+import src.Taxon.RealTaxon;
+import src.Tree.Tree;
+import src.Tree.TreeNode;
+import src.Utility.LongPairIntMap;
+
+// Greedy consensus of the single copy trees that the tagged gene trees decompose into, as done by
+// DISCO followed by a greedy consensus in PAUP, without writing the decomposed trees anywhere.
+// At every duplication node the child with fewer species is cut off (the right one on a tie) and becomes
+// a tree of its own, trees with fewer than MIN_TAXA leaves are dropped.
+// Every tree adds its bipartitions once, a bipartition is its leaf set and the side holding the smallest
+// taxon of it, so the same split of the same leaf set from different trees is counted together.
+public class GreedyConsensus {
+
+    public static int MIN_TAXA = 4;
+
+    int taxaCount;
+    int words;
+    RealTaxon[] taxa;
+
+    // distinct bipartitions, in the order they were first seen
+    ArrayList<long[]> sides;
+    ArrayList<long[]> leafSets;
+    int[] counts;
+    // the last decomposed tree that counted a bipartition, so a tree counts it once
+    int[] lastTree;
+    LongPairIntMap index;
+
+    // number of decomposed trees every taxon is in
+    int[] taxonCounts;
+    int decomposedTrees;
+
+    public GreedyConsensus(RealTaxon[] taxa) {
+        this.taxa = taxa;
+        this.taxaCount = taxa.length;
+        this.words = (taxaCount + 63) >>> 6;
+        this.sides = new ArrayList<>();
+        this.leafSets = new ArrayList<>();
+        this.counts = new int[16];
+        this.lastTree = new int[16];
+        this.index = new LongPairIntMap();
+        this.taxonCounts = new int[taxaCount];
+        this.decomposedTrees = 0;
+    }
+
+    // the tree must be tagged, it is not changed. a tree counts as many times as its multiplicity
+    public void addGeneTree(Tree tree) {
+        int n = tree.nodes.size();
+        int[] order = tree.postOrder(tree.root);
+
+        // species below a node in the whole tree and in the decomposed tree the node ends up in
+        long[] species = new long[n * words];
+        long[] below = new long[n * words];
+        boolean[] cut = new boolean[n];
+
+        for (int index : order) {
+            TreeNode node = tree.nodes.get(index);
+            int base = index * words;
+            if (node.isLeaf()) {
+                int id = node.taxon.id;
+                species[base + (id >>> 6)] |= 1L << id;
+                below[base + (id >>> 6)] |= 1L << id;
+                continue;
+            }
+            if (node.dupplicationNode && node.childs.size() > 1) {
+                int keep = 0;
+                int keepCount = count(species, node.childs.get(0).index);
+                for (int i = 1; i < node.childs.size(); ++i) {
+                    int c = count(species, node.childs.get(i).index);
+                    if (c > keepCount) {
+                        keep = i;
+                        keepCount = c;
+                    }
+                }
+                for (int i = 0; i < node.childs.size(); ++i) {
+                    if (i != keep)
+                        cut[node.childs.get(i).index] = true;
+                }
+            }
+            for (var child : node.childs) {
+                int cb = child.index * words;
+                for (int w = 0; w < words; ++w) {
+                    species[base + w] |= species[cb + w];
+                    if (!cut[child.index])
+                        below[base + w] |= below[cb + w];
+                }
+            }
+        }
+
+        // the root of the decomposed tree of every node
+        int[] top = new int[n];
+        int[] pre = tree.preOrder(tree.root);
+        for (int index : pre) {
+            TreeNode node = tree.nodes.get(index);
+            top[index] = (node == tree.root || cut[index]) ? index : top[node.parent.index];
+        }
+
+        // every decomposed tree that is kept gets a stamp, and its leaf set with the fingerprint of it
+        int[] stamp = new int[n];
+        long[][] leafSets = new long[n][];
+        long[] leafHi = new long[n], leafLo = new long[n];
+        int[] leaves = new int[n];
+        for (int index : pre) {
+            if (top[index] != index)
+                continue;
+            leaves[index] = count(below, index);
+            if (leaves[index] < MIN_TAXA)
+                continue;
+            stamp[index] = ++decomposedTrees;
+            long[] leafSet = new long[words];
+            System.arraycopy(below, index * words, leafSet, 0, words);
+            leafSets[index] = leafSet;
+            leafHi[index] = fingerprintHi(leafSet);
+            leafLo[index] = fingerprintLo(leafSet);
+            addTaxa(leafSet, tree.multiplicity);
+        }
+
+        for (int v : pre) {
+            int t = top[v];
+            if (v == t || stamp[t] == 0)
+                continue;
+            int size = count(below, v);
+            if (size >= 2 && size <= leaves[t] - 2)
+                addBipartition(below, v, leafSets[t], leafHi[t], leafLo[t], stamp[t], tree.multiplicity);
+        }
+    }
+
+    private int count(long[] sets, int index) {
+        int c = 0;
+        for (int w = index * words, end = w + words; w < end; ++w) {
+            c += Long.bitCount(sets[w]);
+        }
+        return c;
+    }
+
+    private void addTaxa(long[] leafSet, int weight) {
+        for (int w = 0; w < words; ++w) {
+            long bits = leafSet[w];
+            while (bits != 0) {
+                taxonCounts[(w << 6) + Long.numberOfTrailingZeros(bits)] += weight;
+                bits &= bits - 1;
+            }
+        }
+    }
+
+    private void addBipartition(long[] below, int v, long[] leafSet, long leafHi, long leafLo, int stamp, int weight) {
+        int lowWord = 0;
+        while (leafSet[lowWord] == 0)
+            lowWord++;
+        long lowBit = Long.lowestOneBit(leafSet[lowWord]);
+        boolean flip = (below[v * words + lowWord] & lowBit) == 0;
+
+        long[] side = new long[words];
+        for (int w = 0; w < words; ++w) {
+            long b = below[v * words + w];
+            side[w] = flip ? leafSet[w] & ~b : b;
+        }
+
+        long hi = mix(fingerprintHi(side), leafHi);
+        long lo = mix(fingerprintLo(side), leafLo);
+
+        int id = -1;
+        for (int slot = index.find(hi, lo); slot != -1; slot = index.findNext(hi, lo, slot)) {
+            int candidate = index.valueAt(slot);
+            if (sameSet(sides.get(candidate), side) && sameSet(leafSets.get(candidate), leafSet)) {
+                id = candidate;
+                break;
+            }
+        }
+        if (id == -1) {
+            id = sides.size();
+            sides.add(side);
+            leafSets.add(leafSet);
+            index.add(hi, lo, id);
+            if (id == counts.length) {
+                counts = Arrays.copyOf(counts, 2 * id);
+                lastTree = Arrays.copyOf(lastTree, 2 * id);
+            }
+        }
+        if (lastTree[id] != stamp) {
+            lastTree[id] = stamp;
+            counts[id] += weight;
+        }
+    }
+
+    private static long mix(long side, long leafSet) {
+        return side + Utility.mix64(leafSet);
+    }
+
+    private long fingerprintHi(long[] set) {
+        long h = 0;
+        for (int w = 0; w < words; ++w) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1)
+                h += Utility.taxonKeyHi((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        return h;
+    }
+
+    private long fingerprintLo(long[] set) {
+        long l = 0;
+        for (int w = 0; w < words; ++w) {
+            for (long bits = set[w]; bits != 0; bits &= bits - 1)
+                l += Utility.taxonKeyLo((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        return l;
+    }
+
+    private static boolean sameSet(long[] a, long[] b) {
+        for (int w = 0; w < a.length; ++w) {
+            if (a[w] != b[w])
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean compatible(long[] a, long[] b) {
+        boolean disjoint = true, aInB = true, bInA = true;
+        for (int w = 0; w < a.length; ++w) {
+            long common = a[w] & b[w];
+            if (common != 0)
+                disjoint = false;
+            if (common != a[w])
+                aInB = false;
+            if (common != b[w])
+                bInA = false;
+        }
+        return disjoint || aInB || bInA;
+    }
+
+    // the decomposed trees are unrooted and may miss taxa, so every bipartition is turned into the cluster
+    // on the side away from the taxon found in most decomposed trees, bipartitions of trees without
+    // that taxon are left out. clusters are taken by decreasing count as long as they fit the ones taken,
+    // taxa that are in no decomposed tree hang from the root
+    public Tree build(Map<String, RealTaxon> taxaMap) {
+        int reference = 0;
+        for (int t = 1; t < taxaCount; ++t) {
+            if (taxonCounts[t] > taxonCounts[reference])
+                reference = t;
+        }
+        int refWord = reference >>> 6;
+        long refBit = 1L << reference;
+
+        ArrayList<long[]> clusters = new ArrayList<>();
+        ArrayList<Integer> clusterCounts = new ArrayList<>();
+        LongPairIntMap clusterIndex = new LongPairIntMap();
+
+        for (int id = 0; id < sides.size(); ++id) {
+            long[] leafSet = leafSets.get(id);
+            if ((leafSet[refWord] & refBit) == 0)
+                continue;
+            long[] side = sides.get(id);
+            long[] cluster = side;
+            if ((side[refWord] & refBit) != 0) {
+                cluster = new long[words];
+                for (int w = 0; w < words; ++w)
+                    cluster[w] = leafSet[w] & ~side[w];
+            }
+            int size = 0;
+            for (long bits : cluster)
+                size += Long.bitCount(bits);
+            if (size >= taxaCount - 1)
+                continue;
+
+            long hi = fingerprintHi(cluster), lo = fingerprintLo(cluster);
+            int found = -1;
+            for (int slot = clusterIndex.find(hi, lo); slot != -1; slot = clusterIndex.findNext(hi, lo, slot)) {
+                if (sameSet(clusters.get(clusterIndex.valueAt(slot)), cluster)) {
+                    found = clusterIndex.valueAt(slot);
+                    break;
+                }
+            }
+            if (found == -1) {
+                clusterIndex.add(hi, lo, clusters.size());
+                clusters.add(cluster);
+                clusterCounts.add(counts[id]);
+            } else {
+                clusterCounts.set(found, clusterCounts.get(found) + counts[id]);
+            }
+        }
+
+        // stable, so equal counts keep the order they were first seen in
+        ArrayList<Integer> byCount = new ArrayList<>();
+        for (int i = 0; i < clusters.size(); ++i)
+            byCount.add(i);
+        byCount.sort((a, b) -> Integer.compare(clusterCounts.get(b), clusterCounts.get(a)));
+
+        ArrayList<long[]> accepted = new ArrayList<>();
+        for (int i : byCount) {
+            long[] cluster = clusters.get(i);
+            boolean fits = true;
+            for (var other : accepted) {
+                if (!compatible(cluster, other)) {
+                    fits = false;
+                    break;
+                }
+            }
+            if (fits)
+                accepted.add(cluster);
+        }
+
+        return new Tree(toNewick(accepted), taxaMap);
+    }
+
+    // clusters are nested or disjoint. taken from large to small, the parent of a cluster is the
+    // last cluster taken that holds its taxa. node k is the root and node k + 1 + t is taxon t
+    private String toNewick(ArrayList<long[]> accepted) {
+        int k = accepted.size();
+        int[] sizes = new int[k];
+        ArrayList<Integer> bySize = new ArrayList<>();
+        for (int i = 0; i < k; ++i) {
+            for (long bits : accepted.get(i))
+                sizes[i] += Long.bitCount(bits);
+            bySize.add(i);
+        }
+        bySize.sort((a, b) -> Integer.compare(sizes[b], sizes[a]));
+
+        int[] owner = new int[taxaCount];
+        Arrays.fill(owner, k);
+        ArrayList<ArrayList<Integer>> children = new ArrayList<>();
+        for (int i = 0; i <= k; ++i)
+            children.add(new ArrayList<>());
+
+        for (int i : bySize) {
+            long[] cluster = accepted.get(i);
+            int parent = -1;
+            for (int w = 0; w < words; ++w) {
+                for (long bits = cluster[w]; bits != 0; bits &= bits - 1) {
+                    int t = (w << 6) + Long.numberOfTrailingZeros(bits);
+                    if (parent == -1)
+                        parent = owner[t];
+                    owner[t] = i;
+                }
+            }
+            children.get(parent).add(i);
+        }
+        for (int t = 0; t < taxaCount; ++t) {
+            children.get(owner[t]).add(k + 1 + t);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        // a node on the stack is pushed again as ~node to close it after its children
+        int[] stack = new int[2 * (k + 1 + taxaCount)];
+        int top = 0;
+        stack[top++] = k;
+        while (top > 0) {
+            int node = stack[--top];
+            if (node < 0) {
+                sb.append(')');
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != '(')
+                sb.append(',');
+            if (node > k) {
+                appendLabel(sb, taxa[node - k - 1].label);
+                continue;
+            }
+            sb.append('(');
+            stack[top++] = ~node;
+            var childs = children.get(node);
+            for (int i = childs.size() - 1; i >= 0; --i)
+                stack[top++] = childs.get(i);
+        }
+        sb.append(';');
+        return sb.toString();
+    }
+
+    private static void appendLabel(StringBuilder sb, String label) {
+        boolean quote = label.isEmpty();
+        for (int i = 0; i < label.length() && !quote; ++i) {
+            quote = "()[]',:; \t".indexOf(label.charAt(i)) != -1;
+        }
+        if (!quote) {
+            sb.append(label);
+            return;
+        }
+        sb.append('\'').append(label.replace("'", "''")).append('\'');
+    }
+
+    public int getDecomposedTreeCount() {
+        return decomposedTrees;
+    }
+}
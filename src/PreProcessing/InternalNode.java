@@ -4,7 +4,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 
 import src.ScoreCalculator.NumSatSQ;
-import src.Tree.Branch;
+import src.Taxon.TaxonSet;
 
 public class InternalNode {
 
@@ -16,7 +16,7 @@ public class InternalNode {
     public int count;
     public NumSatSQ scoreCalculator;
 
-    public boolean[] realTaxaPresent;
+    public TaxonSet realTaxaPresent;
 
     public int[] childrenIndicesInComponent;
     public int parentIndexInComponent;
@@ -47,23 +47,15 @@ public class InternalNode {
 
     }
 
-    public Branch[] getBranchesOfChilds(){
-        Branch[] branches = new Branch[this.childs.length];
-        for(int i = 0; i < this.childs.length; ++i){
-            branches[i] = this.childs[i].dataList.get(this.childrenIndicesInComponent[i]).branch;
-        }
-        return branches;
-    }
-
-    public Branch getBranchOfParent(){
-        return this.parent.dataList.get(this.parentIndexInComponent).branch;
-    }
-
     public void increaseCount(){
         this.count++;
     }
 
-    public void setRealTaxaPresent(boolean[] realTaxaInChilds){
+    public void increaseCount(int by){
+        this.count += by;
+    }
+
+    public void setRealTaxaPresent(TaxonSet realTaxaInChilds){
         this.realTaxaPresent = realTaxaInChilds;
     }
     
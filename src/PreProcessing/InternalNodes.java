@@ -1,33 +1,83 @@
 package src.PreProcessing;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
+
+import src.Utility;
+import src.Utility.LongPairIntMap;
 
 public class InternalNodes {
 
     public ArrayList<InternalNode> nodes;
-    public Map<Component, boolean[]> realTaxaInPartition;
-    public Map<String, InternalNode> stringIdToInternalNode;
+    // the ids of the children of every node in increasing order, followed by the id of its parent
+    private ArrayList<int[]> keys;
+    private LongPairIntMap index;
 
-    public InternalNodes(Map<Component, boolean[]> realTaxaInPartition){
+    public InternalNodes(){
         this.nodes = new ArrayList<>();
-        this.realTaxaInPartition = realTaxaInPartition;
-        this.stringIdToInternalNode = new HashMap<>();
+        this.keys = new ArrayList<>();
+        this.index = new LongPairIntMap();
+    }
+
+    private static int[] keyOf(Component[] childs, Component parent){
+        int[] key = new int[childs.length + 1];
+        for(int i = 0; i < childs.length; ++i){
+            key[i] = childs[i].id;
+        }
+        Arrays.sort(key, 0, childs.length);
+        key[childs.length] = parent.id;
+        return key;
+    }
+
+    private static long fingerprintHi(int[] key){
+        long hi = key.length;
+        for(int x : key){
+            hi = Utility.mix64(hi + x);
+        }
+        return hi;
+    }
+
+    private static long fingerprintLo(int[] key){
+        long lo = 0;
+        for(int x : key){
+            lo = lo * 0x9E3779B97F4A7C15L + Utility.mix64(~x);
+        }
+        return lo;
     }
 
-    public InternalNode addInternalNode(Component[] childs, Component parent){
-        String internalNodeString = InternalNode.convertToString(childs, parent);
-        InternalNode internalNode;
-        if(this.stringIdToInternalNode.containsKey(internalNodeString)){
-            internalNode = this.stringIdToInternalNode.get(internalNodeString);
-            internalNode.increaseCount();
+    private InternalNode find(int[] key, long hi, long lo){
+        for(int slot = index.find(hi, lo); slot != -1; slot = index.findNext(hi, lo, slot)){
+            int id = index.valueAt(slot);
+            if(Arrays.equals(keys.get(id), key)){
+                return nodes.get(id);
+            }
         }
-        else{
-            internalNode = new InternalNode(childs, parent);
-            this.nodes.add(internalNode);
-            this.stringIdToInternalNode.put(internalNodeString, internalNode);
+        return null;
+    }
+
+    // the internal node with these children and parent, or null. only reads, so it can run on several
+    // threads while nothing is added
+    public InternalNode find(Component[] childs, Component parent){
+        int[] key = keyOf(childs, parent);
+        return find(key, fingerprintHi(key), fingerprintLo(key));
+    }
+
+    // count is the number of times the node is added at once
+    public InternalNode addInternalNode(Component[] childs, Component parent, int count){
+        int[] key = keyOf(childs, parent);
+        long hi = fingerprintHi(key), lo = fingerprintLo(key);
+
+        InternalNode internalNode = find(key, hi, lo);
+        if(internalNode != null){
+            internalNode.increaseCount(count);
+            return internalNode;
         }
+
+        internalNode = new InternalNode(childs, parent);
+        internalNode.count = count;
+        index.add(hi, lo, this.nodes.size());
+        this.nodes.add(internalNode);
+        this.keys.add(key);
         return internalNode;
     }
 
@@ -0,0 +1,205 @@
+package src.PreProcessing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import src.Tree.Tree;
+import src.Tree.TreeNode;
+
+// Average internode distance between taxa over gene trees, used to resolve polytomies.
+// The distance of two leaves is the number of edges between them, copies of one taxon are not paired.
+// Sums are exact integers, so adding trees in a different order or on other threads gives the same matrix.
+// Only pairs a < b are kept, pair (a, b) at b * (b - 1) / 2 + a, and averages are taken when asked for.
+public class InternodeDistances {
+
+    // the most taxa whose pairs an array can index
+    public static final int MAX_TAXA = 65536;
+    // a sum and a count per pair
+    static final long BYTES_PER_PAIR = 12;
+
+    int taxaCount;
+    long[] sums;
+    int[] counts;
+
+    public InternodeDistances(int taxaCount) {
+        if (taxaCount > MAX_TAXA) {
+            System.out.println("Polytomies of trees over " + taxaCount + " taxa can not be resolved, at most " + MAX_TAXA + " taxa are supported");
+            System.exit(-1);
+        }
+        this.taxaCount = taxaCount;
+        this.sums = new long[pairCount(taxaCount)];
+        this.counts = new int[pairCount(taxaCount)];
+    }
+
+    static int pairCount(int taxaCount) {
+        return (int) ((long) taxaCount * (taxaCount - 1) / 2);
+    }
+
+    public static long bytes(int taxaCount) {
+        return BYTES_PER_PAIR * pairCount(Math.min(taxaCount, MAX_TAXA));
+    }
+
+    // matrices that can be summed at once in half of the heap that is free, at least one
+    public static int copiesThatFit(int taxaCount, int threadCount) {
+        Runtime runtime = Runtime.getRuntime();
+        long free = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        long copies = free / 2 / Math.max(1, bytes(taxaCount));
+        return (int) Math.max(1, Math.min(threadCount, copies));
+    }
+
+    private static int index(int a, int b) {
+        return a < b ? (int) ((long) b * (b - 1) / 2) + a : (int) ((long) a * (a - 1) / 2) + b;
+    }
+
+    // the leaves below a node are a contiguous range in post order, so the pairs meeting at a node
+    // are the pairs across its children's ranges and every pair is visited once
+    public void addTree(Tree tree) {
+        int n = tree.nodes.size();
+        int[] depth = new int[n];
+        for (int index : tree.preOrder(tree.root)) {
+            TreeNode node = tree.nodes.get(index);
+            if (node.isLeaf())
+                continue;
+            for (var child : node.childs) {
+                depth[child.index] = depth[index] + 1;
+            }
+        }
+
+        int[] leafIds = new int[n];
+        int[] leafDepths = new int[n];
+        int[] firstLeaf = new int[n];
+        int[] endLeaf = new int[n];
+        int leaves = 0;
+
+        for (int index : tree.postOrder(tree.root)) {
+            TreeNode node = tree.nodes.get(index);
+            if (node.isLeaf()) {
+                firstLeaf[index] = leaves;
+                leafIds[leaves] = node.taxon.id;
+                leafDepths[leaves] = depth[index];
+                leaves++;
+                endLeaf[index] = leaves;
+                continue;
+            }
+            firstLeaf[index] = node.childs.isEmpty() ? leaves : firstLeaf[node.childs.get(0).index];
+            endLeaf[index] = leaves;
+
+            int twiceDepth = 2 * depth[index];
+            for (int i = 0; i < node.childs.size(); ++i) {
+                int ci = node.childs.get(i).index;
+                for (int j = i + 1; j < node.childs.size(); ++j) {
+                    int cj = node.childs.get(j).index;
+                    for (int u = firstLeaf[ci]; u < endLeaf[ci]; ++u) {
+                        int a = leafIds[u];
+                        for (int v = firstLeaf[cj]; v < endLeaf[cj]; ++v) {
+                            int b = leafIds[v];
+                            if (a == b)
+                                continue;
+                            int k = index(a, b);
+                            sums[k] += leafDepths[u] + leafDepths[v] - twiceDepth;
+                            counts[k]++;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void add(InternodeDistances other) {
+        for (int i = 0; i < sums.length; ++i) {
+            sums[i] += other.sums[i];
+            counts[i] += other.counts[i];
+        }
+    }
+
+    // pairs that never share a tree get 0, they are never compared within one tree
+    public double distance(int a, int b) {
+        if (a == b)
+            return 0;
+        int k = index(a, b);
+        return counts[k] > 0 ? (double) sums[k] / counts[k] : 0;
+    }
+
+    // sums the matrices into the first one, each is dropped once it is added
+    static InternodeDistances sum(ArrayList<InternodeDistances> matrices) {
+        InternodeDistances total = matrices.get(0);
+        for (int i = 1; i < matrices.size(); ++i) {
+            total.add(matrices.get(i));
+            matrices.set(i, null);
+        }
+        return total;
+    }
+
+    // at most limit matrices shared by the threads that parse the trees, a thread takes a free one for each tree
+    public static class Pool {
+        private int taxaCount, limit;
+        private ArrayList<InternodeDistances> made = new ArrayList<>();
+        private ArrayDeque<InternodeDistances> free = new ArrayDeque<>();
+
+        public Pool(int taxaCount, int limit) {
+            this.taxaCount = taxaCount;
+            this.limit = limit;
+        }
+
+        public synchronized InternodeDistances take() {
+            while (free.isEmpty() && made.size() == limit) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            if (!free.isEmpty())
+                return free.pop();
+            InternodeDistances distances = new InternodeDistances(taxaCount);
+            made.add(distances);
+            return distances;
+        }
+
+        public synchronized void give(InternodeDistances distances) {
+            free.push(distances);
+            notify();
+        }
+
+        public synchronized InternodeDistances sum() {
+            if (made.isEmpty())
+                return new InternodeDistances(taxaCount);
+            free.clear();
+            return InternodeDistances.sum(made);
+        }
+    }
+
+    // splits the trees into one contiguous slice per matrix that fits, each slice sums into its own matrix
+    public static InternodeDistances averageOver(ArrayList<Tree> trees, int taxaCount, int threadCount) {
+        int slices = Math.max(1, Math.min(copiesThatFit(taxaCount, threadCount), trees.size()));
+        ExecutorService pool = Executors.newFixedThreadPool(slices);
+        try {
+            ArrayList<Future<InternodeDistances>> futures = new ArrayList<>();
+            for (int s = 0; s < slices; ++s) {
+                int from = (int) ((long) trees.size() * s / slices);
+                int to = (int) ((long) trees.size() * (s + 1) / slices);
+                futures.add(pool.submit(() -> {
+                    InternodeDistances distances = new InternodeDistances(taxaCount);
+                    for (int i = from; i < to; ++i) {
+                        distances.addTree(trees.get(i));
+                    }
+                    return distances;
+                }));
+            }
+
+            ArrayList<InternodeDistances> matrices = new ArrayList<>();
+            for (var future : futures) {
+                matrices.add(future.get());
+            }
+            return sum(matrices);
+        } catch (InterruptedException | ExecutionException e) {
+            throw new RuntimeException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
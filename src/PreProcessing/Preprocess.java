@@ -1,9 +1,11 @@
 package src.PreProcessing;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.util.Map;
 
+import src.Config;
 import src.Taxon.RealTaxon;
+import src.Tree.Tree;
 
 public class Preprocess {
 
@@ -11,20 +13,31 @@ public class Preprocess {
         public DataContainer dc;
         public Map<String, RealTaxon> taxaMap;
         public RealTaxon[] realTaxa;
+        // only built when Config.COMPUTE_CONSENSUS is on
+        public Tree consensusTree;
         
     }
 
-    public static PreprocessReturnType preprocess(String geneTreePath) throws FileNotFoundException{
+    public static PreprocessReturnType preprocess(String geneTreePath) throws IOException{
         GeneTrees geneTrees = new GeneTrees(geneTreePath);
         PreprocessReturnType ret = new PreprocessReturnType();
-        ret.taxaMap = geneTrees.readTaxaNames();
-
-        System.out.println("taxa map: " + ret.taxaMap);
-
-        geneTrees.readGeneTrees(null);
-        ret.dc = geneTrees.createDateContainer();
+        if(Config.STREAM_GENE_TREES){
+            ret.dc = geneTrees.streamDataContainer(null);
+            ret.taxaMap = geneTrees.taxaMap;
+            System.out.println("taxa map: " + ret.taxaMap);
+        }
+        else{
+            ret.taxaMap = geneTrees.readTaxaAndGeneTrees(null);
+            System.out.println("taxa map: " + ret.taxaMap);
+            ret.dc = geneTrees.createDateContainer();
+        }
         ret.realTaxa = geneTrees.taxa;
 
+        if(geneTrees.consensus != null){
+            ret.consensusTree = geneTrees.consensus.build(ret.taxaMap);
+            System.out.println("Consensus of " + geneTrees.consensus.getDecomposedTreeCount() + " decomposed trees");
+        }
+
 
         // System.out.println("-------------------");
         // for(var x : ret.dc.partitionsByTreeNodes){
@@ -0,0 +1,91 @@
+package src.PreProcessing;
+
+import src.Config;
+import src.Taxon.TaxonSet;
+import src.Tree.Tree;
+import src.Tree.TreeNode;
+
+// What folding a gene tree finds in the component graph and internal nodes as they are, worked out without
+// changing them, so the plans of many trees can be made at once on several threads.
+// Folding the trees in order then only makes what its plan did not find. A lookup that finds something has
+// no effect on the graph, so this gives the same graph, ids and counts as folding the trees one by one.
+class TreeFoldPlan {
+
+    // by tree node index, null where nothing was found.
+    // the component of the node, the speciation parent component handed down to it, and for a speciation
+    // node its internal node
+    Component[] childComponents;
+    Component[] lastComponents;
+    InternalNode[] internalNodes;
+
+    // canonical form of the tree and the internal nodes of the same tree folded before, if deduplicating
+    int[] form;
+    InternalNode[] seen;
+
+    TreeFoldPlan(Tree tree, ComponentGraph componentGraph, InternalNodes nodes, DistinctGeneTrees distinct) {
+        if (Config.DEDUPLICATE_GENE_TREES) {
+            this.form = tree.canonicalForm();
+            this.seen = distinct.find(form);
+            if (seen != null)
+                return;
+        }
+
+        int n = tree.nodes.size();
+        this.childComponents = new Component[n];
+        this.lastComponents = new Component[n];
+        this.internalNodes = new InternalNode[n];
+
+        int taxonCount = componentGraph.taxa.length;
+        TaxonSet[] taxa = new TaxonSet[n];
+        for (TreeNode node : tree.topSortedNodes) {
+            if (node.isLeaf()) {
+                taxa[node.index] = componentGraph.taxaPartitionNodes[node.taxon.id].realTaxaSet;
+                childComponents[node.index] = componentGraph.taxaPartitionNodes[node.taxon.id];
+            } else {
+                taxa[node.index] = new TaxonSet(taxonCount);
+                for (TreeNode child : node.childs)
+                    taxa[node.index].addAll(taxa[child.index]);
+                childComponents[node.index] = find(componentGraph, taxa[node.index]);
+            }
+        }
+
+        // the taxa of the speciation parent component of every node, the sentinel has none
+        TaxonSet[] lastTaxa = new TaxonSet[n];
+        lastTaxa[tree.root.index] = componentGraph.getSentinel().realTaxaSet;
+        lastComponents[tree.root.index] = componentGraph.getSentinel();
+
+        for (int index : tree.preOrder(tree.root)) {
+            TreeNode node = tree.nodes.get(index);
+            if (node.isLeaf())
+                continue;
+
+            TreeNode c0 = node.childs.get(0);
+            TreeNode c1 = node.childs.get(1);
+
+            if (node.dupplicationNode) {
+                lastTaxa[c0.index] = lastTaxa[c1.index] = lastTaxa[index];
+                lastComponents[c0.index] = lastComponents[c1.index] = lastComponents[index];
+                continue;
+            }
+
+            lastTaxa[c0.index] = lastTaxa[index].copy();
+            lastTaxa[c0.index].addAll(taxa[c1.index]);
+            lastComponents[c0.index] = find(componentGraph, lastTaxa[c0.index]);
+
+            lastTaxa[c1.index] = lastTaxa[index].copy();
+            lastTaxa[c1.index].addAll(taxa[c0.index]);
+            lastComponents[c1.index] = find(componentGraph, lastTaxa[c1.index]);
+
+            Component parent = lastComponents[index];
+            Component[] childs = new Component[node.childs.size()];
+            for (int j = 0; j < childs.length; ++j)
+                childs[j] = childComponents[node.childs.get(j).index];
+            if (parent != null && childs[0] != null && childs[1] != null)
+                internalNodes[index] = nodes.find(childs, parent);
+        }
+    }
+
+    private static Component find(ComponentGraph componentGraph, TaxonSet set) {
+        return componentGraph.find(set, set.fingerprintHi(), set.fingerprintLo());
+    }
+}
@@ -1,6 +1,6 @@
 package src;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 import src.DSPerLevel.BookKeepingPerLevelDC;
 import src.DSPerLevel.TaxaPerLevelWithPartition;
@@ -123,7 +123,8 @@ public class QFMDC {
     }
     
 
-    public static Swap swapMax(BookKeepingPerLevelDC book, double[][] rtGains, double[] dtGains, boolean[] rtLocked, boolean[] dtLocked){
+    // fills in swap with the taxon of the largest gain and swaps it, false if no taxon can be swapped
+    public static boolean swapMax(BookKeepingPerLevelDC book, double[][] rtGains, double[] dtGains, boolean[] rtLocked, boolean[] dtLocked, Swap swap){
 
         int maxGainIndex = -1;
         double maxGain = 0;
@@ -162,7 +163,7 @@ public class QFMDC {
             }
         }
 
-        if(maxGainIndex == -1) return null;
+        if(maxGainIndex == -1) return false;
 
         book.swapTaxon(maxGainIndex, dummyChosen);
         if(dummyChosen){
@@ -172,8 +173,10 @@ public class QFMDC {
             rtLocked[maxGainIndex] = true;
         }
 
-        
-        return new Swap(maxGainIndex, dummyChosen, maxGain);
+        swap.index = maxGainIndex;
+        swap.isDummy = dummyChosen;
+        swap.gain = maxGain;
+        return true;
 
 
     }
@@ -187,26 +190,26 @@ public class QFMDC {
 
         boolean singletonPartition = book.taxaPerLevel.getTaxonCountInPartition(0) == 1  || book.taxaPerLevel.getTaxonCountInPartition(1) == 1;
 
-        boolean[] rtLocked = new boolean[book.taxaPerLevel.realTaxonCount];
-        boolean[] dtLocked = new boolean[book.taxaPerLevel.dummyTaxonCount];
-        double[][] rtGains;
-        double[] dtGains;
+        // the buffers of the level, so a swap allocates nothing
+        boolean[] rtLocked = book.realTaxonLocked;
+        boolean[] dtLocked = book.dummyTaxonLocked;
+        double[][] rtGains = book.realTaxaGains;
+        double[] dtGains = book.dummyTaxaGains;
+        Arrays.fill(rtLocked, false);
+        Arrays.fill(dtLocked, false);
 
-        ArrayList<Swap> swaps = new ArrayList<Swap>();
+        int[] swaps = book.swapped;
+        int swapCount = 0;
+        Swap x = new Swap(-1, false, 0);
 
         // ArrayList<Double> cgs = new ArrayList<Double>();
 
         while(true){
-            rtGains = new double[book.taxaPerLevel.realTaxonCount][2];
-            dtGains = new double[book.taxaPerLevel.dummyTaxonCount];
-            
             book.calculateScoreAndGains(rtGains, dtGains);
 
-            var x = swapMax(book, rtGains, dtGains, rtLocked,dtLocked);
-            
-            if(x != null){
+            if(swapMax(book, rtGains, dtGains, rtLocked, dtLocked, x)){
                 // System.out.println("Swap : " + x.index + " " + x.isDummy + " " + x.gain);
-                swaps.add(x);
+                swaps[swapCount++] = x.isDummy ? -1 - x.index : x.index;
                 
                 double gain = x.gain;
 
@@ -219,13 +222,13 @@ public class QFMDC {
                 if(singletonPartition){
                     if(maxCgIndex == -1 ){ // && book.taxas.getTaxonCountInPartition(0) > 1 && book.taxas.getTaxonCountInPartition(1) > 1 ){
                         maxCg = cg;
-                        maxCgIndex = swaps.size() - 1;
+                        maxCgIndex = swapCount - 1;
                     }
                 }
                 
                 if(cg > maxCg && Math.abs(maxCg - cg) > EPS ){ // && book.taxas.getTaxonCountInPartition(0) > 1 && book.taxas.getTaxonCountInPartition(1) > 1 ){
                     maxCg = cg;
-                    maxCgIndex = swaps.size() - 1;
+                    maxCgIndex = swapCount - 1;
                 }
 
                 // if(cg < 0){
@@ -241,12 +244,12 @@ public class QFMDC {
         // System.out.println("swaps size : " + swaps.size());
         // System.out.println("Total taxon count : " + (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount));
         // System.out.println("Cg : " + cg);
-        if(swaps.size() == (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount)){
+        if(swapCount == (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount)){
             // System.out.println("Warning: Not all taxa swapped in one iteration");
             if(Math.abs(cg) > EPS){
                 System.out.println("Warning: Cg not zero after all possible swaps");
                 System.out.println("Cg: " + cg);
-                System.out.println("Swaps size: " + swaps.size() + " Total taxon count: " + (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount));
+                System.out.println("Swaps size: " + swapCount + " Total taxon count: " + (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount));
                 System.out.println("MaxCg: " + maxCg + " MaxCgIndex: " + maxCgIndex);
 
             }
@@ -254,23 +257,26 @@ public class QFMDC {
         
 
         if(maxCgIndex == -1){
-            if(swaps.size() != (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount)){
-                for(int i = swaps.size() - 1; i >= 0; --i){
-                    var x = swaps.get(i);
+            if(swapCount != (book.taxaPerLevel.realTaxonCount + book.taxaPerLevel.dummyTaxonCount)){
+                for(int i = swapCount - 1; i >= 0; --i){
                     // book.swapTaxon(x.index, x.isDummy);
-                    if(x.isDummy){
-                        book.taxaPerLevel.swapPartitionDummyTaxon(x.index);
+                    if(swaps[i] < 0){
+                        book.taxaPerLevel.swapPartitionDummyTaxon(-1 - swaps[i]);
                     }
                     else{
-                        book.taxaPerLevel.swapPartitionRealTaxon(x.index);
+                        book.taxaPerLevel.swapPartitionRealTaxon(swaps[i]);
                     }
                 }
             }
             return false;
         }
-        for(int i = swaps.size() - 1; i > maxCgIndex; --i){
-            var x = swaps.get(i);
-            book.swapTaxon(x.index, x.isDummy);
+        for(int i = swapCount - 1; i > maxCgIndex; --i){
+            if(swaps[i] < 0){
+                book.swapTaxon(-1 - swaps[i], true);
+            }
+            else{
+                book.swapTaxon(swaps[i], false);
+            }
         }
 
         return true;
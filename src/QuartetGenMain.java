@@ -14,11 +14,11 @@ public class QuartetGenMain {
         String path = args[0];
 
         GeneTrees geneTrees = new GeneTrees(path);
-        geneTrees.readTaxaNames();
+        geneTrees.readTaxaAndGeneTrees(null);
         
         // System.out.println("Found taxa: " + geneTrees.taxaMap);
 
-        QuartestsList qlist = geneTrees.readGeneTreesAndGenerateQuartets();
+        QuartestsList qlist = geneTrees.generateQuartets();
 
         qlist.printQuartets(geneTrees.taxa);
 
@@ -0,0 +1,225 @@
+package src;
+
+import java.lang.management.ManagementFactory;
+
+import src.PreProcessing.ComponentDag;
+import src.PreProcessing.DataContainer;
+import src.PreProcessing.GeneTreeFileReader;
+import src.PreProcessing.InternodeDistances;
+
+// Sizes a run from the data container before the FM search starts.
+// Every level of the search gives each slot of a component (one per internal node it is part of) the counts
+// of a branch with a weight per dummy taxon, and each internal node its pair counts, so the memory of a level is
+// the slot count times the dummy taxa of the level. Balanced splits keep about two dummy taxa per level, unbalanced ones
+// pile them up on one side.
+// While the next level is set up the counts of the level before are still reachable, so two levels are counted.
+// The data container is measured (an upper bound unless only the plan is asked for), the rest is projected from object sizes on a 64 bit JVM with compressed
+// references, and the run time from a rate measured on our data sets, so both are estimates.
+// Besides the heap for the search it recommends the threads that reading the gene trees can afford, and notes the
+// engine settings that change the plan: the taxon index of the dag, deduplication and streaming of gene trees.
+public class ResourcePlanner {
+
+    // totals and real taxa counts of a branch in NumSatSQFlat
+    static final long SLOT_BYTES = 24;
+    static final long SLOT_BYTES_PER_DUMMY = 8;
+    // pair counts and frequency in NumSatSQFlat and the view of the node
+    static final long INTERNAL_NODE_BYTES = 100;
+    // gains of a component, and as much again when the gains of the real taxa are gathered
+    static final long COMPONENT_BYTES = 64;
+
+    // time of one unit of work, one internal node or component visited in one pass,
+    // about the same on the 16 taxa fungi and the simulated 26 taxa data on one core
+    static final double NANOS_PER_UNIT = 650;
+    // a parsed gene tree takes about this many bytes per byte of its newick, measured on the fungi trees
+    static final long PARSED_BYTES_PER_NEWICK_BYTE = 40;
+    // calls of oneInteration per level seen in practice, the search stops at Config.MAX_ITERATION + 1
+    static final int EXPECTED_PASSES_PER_LEVEL = 2;
+
+    public int taxonCount;
+    public int componentCount;
+    public int internalNodeCount;
+    public long slotCount;
+
+    public int levelCount;
+    public int expectedDummyTaxa;
+    public int worstDummyTaxa;
+
+    public long containerBytes;
+    public long levelBytes;
+    public long worstLevelBytes;
+    public long peakBytes;
+    public long maxHeapBytes;
+
+    public double expectedSeconds;
+    public double worstSeconds;
+
+    public long fileBytes;
+    public int recommendedThreads;
+    public boolean taxonIndex;
+    public int geneTreeCount;
+    public int duplicateGeneTreeCount;
+
+    private long workPerPass;
+    private long workPerDummy;
+
+    public ResourcePlanner(DataContainer dc, long fileBytes){
+        this.taxonCount = dc.taxa.length;
+        this.componentCount = dc.dag.topOrder.length;
+        this.internalNodeCount = dc.internalNodes.size();
+
+        this.slotCount = dc.dag.slotCount();
+
+        this.levelCount = Math.max(0, taxonCount - 3);
+        this.expectedDummyTaxa = maxDummyTaxa(false);
+        this.worstDummyTaxa = maxDummyTaxa(true);
+
+        // a gain pass visits every internal node once, and its dummy taxa, and every component once
+        this.workPerPass = internalNodeCount + componentCount;
+        this.workPerDummy = internalNodeCount;
+
+        this.containerBytes = measureUsedHeap();
+        this.levelBytes = levelBytes(expectedDummyTaxa);
+        this.worstLevelBytes = levelBytes(worstDummyTaxa);
+        this.peakBytes = containerBytes + 2 * levelBytes;
+        this.maxHeapBytes = Runtime.getRuntime().maxMemory();
+
+        this.expectedSeconds = projectSeconds(EXPECTED_PASSES_PER_LEVEL, false);
+        this.worstSeconds = projectSeconds(Config.MAX_ITERATION + 1, true);
+
+        this.fileBytes = fileBytes;
+        this.recommendedThreads = threadsThatFit();
+        this.taxonIndex = dc.dag.hasTaxonIndex();
+        this.geneTreeCount = dc.geneTreeCount;
+        this.duplicateGeneTreeCount = dc.duplicateGeneTreeCount;
+    }
+
+    // without a collection the reading includes garbage of the preprocessing, so it is an upper bound.
+    // only a plan that stops before the search pays for a collection to tighten it
+    private static long measureUsedHeap(){
+        if(Config.PLAN_ONLY)
+            System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    public long levelBytes(int dummyTaxa){
+        return slotCount * (SLOT_BYTES + SLOT_BYTES_PER_DUMMY * dummyTaxa)
+            + internalNodeCount * INTERNAL_NODE_BYTES
+            + componentCount * COMPONENT_BYTES;
+    }
+
+    // a level with s taxa, d of them dummy, is split in two and each part gets a new dummy taxon for the other.
+    // balanced splits halve the taxa and the dummy taxa. the worst case moves two taxa to a side of their own
+    // and keeps the dummy taxa on the other side, where they can be at most half of the taxa
+    private static int nextSize(int s, boolean unbalanced){
+        return unbalanced ? s - 1 : (s + 1) / 2 + 1;
+    }
+
+    private static int nextDummyTaxa(int s, int d, boolean unbalanced){
+        return unbalanced ? Math.min(d + 1, nextSize(s, true) / 2) : (d + 1) / 2 + 1;
+    }
+
+    private int maxDummyTaxa(boolean unbalanced){
+        int max = 0;
+        for(int s = taxonCount, d = 0; s >= 4; d = nextDummyTaxa(s, d, unbalanced), s = nextSize(s, unbalanced)){
+            max = Math.max(max, d);
+        }
+        return max;
+    }
+
+    // a level of s taxa makes s swaps per pass, each after a gain pass.
+    // setting it up fills every slot and the weights of every real taxon per internal node
+    private double projectSeconds(int passes, boolean unbalanced){
+        double units = 0;
+        double levelsAtDepth = 1;
+        for(int s = taxonCount, d = 0; s >= 4; d = nextDummyTaxa(s, d, unbalanced), s = nextSize(s, unbalanced)){
+            double gainPass = workPerPass + (double) workPerDummy * d;
+            double setUp = (double) slotCount * (d + 1) + (double) internalNodeCount * taxonCount;
+            units += levelsAtDepth * (passes * (double) s * gainPass + setUp);
+            if(!unbalanced)
+                levelsAtDepth *= 2;
+        }
+        return units * NANOS_PER_UNIT / 1e9;
+    }
+
+    // while the gene trees are read every thread has a chunk buffer, up to two chunks per thread wait parsed to be
+    // folded, and with polytomies resolved every thread can sum into a matrix of internode distances of its own
+    public long readBytes(int threads){
+        long chunk = Math.min(fileBytes, GeneTreeFileReader.chunkSize(fileBytes, threads));
+        long bytes = threads * chunk + Math.min(2 * threads * chunk, fileBytes) * PARSED_BYTES_PER_NEWICK_BYTE;
+        if(Config.RESOLVE_POLYTOMY)
+            bytes += threads * InternodeDistances.bytes(taxonCount);
+        return bytes;
+    }
+
+    // the most threads, up to Config.NUM_THREADS, whose reading fits next to the data container.
+    // fewer threads read larger chunks, so if no count fits the threads are kept and the heap has to grow
+    private int threadsThatFit(){
+        for(int threads = Config.NUM_THREADS; threads >= 1; --threads){
+            if(containerBytes + readBytes(threads) <= maxHeapBytes)
+                return threads;
+        }
+        return Config.NUM_THREADS;
+    }
+
+    public boolean fits(){
+        return peakBytes <= maxHeapBytes;
+    }
+
+    // the peak of the search or of reading with the recommended threads, with half of it again to spare,
+    // close to the limit most of the time goes to the collector
+    public String recommendedHeap(){
+        long gb = 1L << 30;
+        long peak = Math.max(peakBytes, containerBytes + readBytes(recommendedThreads));
+        long heap = (peak + peak / 2 + gb - 1) / gb;
+        return "-Xmx" + Math.max(1, heap) + "g";
+    }
+
+    private static String mb(long bytes){
+        return String.format("%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    private static String duration(double seconds){
+        if(seconds < 60)
+            return String.format("%.1f s", seconds);
+        if(seconds < 3600)
+            return String.format("%.1f min", seconds / 60);
+        return String.format("%.1f h", seconds / 3600);
+    }
+
+    public void print(){
+        System.out.println("================ resource plan ================");
+        System.out.println("Taxa : " + taxonCount + ", levels : " + levelCount);
+        System.out.println("Components : " + componentCount + ", internal nodes : " + internalNodeCount + ", slots : " + slotCount);
+        System.out.println("Data container : " + mb(containerBytes));
+        System.out.println("Branch memory per level : " + mb(levelBytes) + " with " + expectedDummyTaxa + " dummy taxa, "
+            + mb(worstLevelBytes) + " with " + worstDummyTaxa + " (unbalanced splits)");
+        System.out.println("Projected peak heap : " + mb(peakBytes) + " of " + mb(maxHeapBytes) + " available");
+        System.out.println("Projected search time : " + duration(expectedSeconds) + ", at most " + duration(worstSeconds));
+        System.out.println("Recommended heap : " + recommendedHeap());
+        if(recommendedThreads < Config.NUM_THREADS){
+            System.out.println("Recommended threads : --threads " + recommendedThreads + ", reading with " + Config.NUM_THREADS
+                + " needs about " + mb(readBytes(Config.NUM_THREADS)));
+        }
+        else{
+            System.out.println("Recommended threads : " + recommendedThreads);
+        }
+        if(!taxonIndex){
+            System.out.println("Taxon index : skipped, it has more than " + ComponentDag.MAX_TAXON_INDEX_ENTRIES
+                + " entries or a component is reached from a leaf on two paths, swaps walk the dag instead");
+        }
+        if(!Config.DEDUPLICATE_GENE_TREES){
+            System.out.println("Gene trees : not deduplicated, every copy of a tree adds internal nodes of its own");
+        }
+        else if(duplicateGeneTreeCount > 0){
+            System.out.println("Gene trees : " + duplicateGeneTreeCount + " of " + geneTreeCount + " were copies and added no internal nodes");
+        }
+        if(!Config.STREAM_GENE_TREES){
+            System.out.println("Gene trees : kept in memory while read, about " + mb(fileBytes * PARSED_BYTES_PER_NEWICK_BYTE)
+                + ", streaming folds them as they are read");
+        }
+        if(2 * worstLevelBytes + containerBytes > maxHeapBytes && fits()){
+            System.out.println("Unbalanced splits may need up to " + mb(containerBytes + 2 * worstLevelBytes));
+        }
+        System.out.println("===============================================");
+    }
+}
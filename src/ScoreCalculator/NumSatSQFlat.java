@@ -0,0 +1,319 @@
+package src.ScoreCalculator;
+
+import src.Tree.Branch;
+
+// The counts of NumSatSQBin2 for all internal nodes of a level, in flat arrays by node index.
+// Branch b = 3 * node + i is child i of the node for i = 0, 1 and its parent for i = 2, the other arrays of a
+// node sit next to each other, so a pass over the nodes reads memory in order.
+// Every update does the same arithmetic in the same order as NumSatSQBin2, so the scores are the same to the
+// last bit. The gains of the real taxa are worked out without updating anything. A Node is the view of one
+// internal node through the NumSatSQ contract.
+public class NumSatSQFlat {
+
+    public final int nodeCount;
+    final int nDummyTaxa;
+    final int[] dummyTaxaPartition;
+
+    // by branch: totals and real taxa counts per partition at 2 * b + p, weights of dummy taxon d at nDummyTaxa * b + d
+    final double[] totalTaxaCounts;
+    final int[] realTaxaCounts;
+    final double[] dummyTaxaWeights;
+
+    // by node: pairsFromBranch[i][p] and pairsWithParent[i][p] at 4 * n + 2 * i + p, pairsLR[p] at 2 * n + p
+    final double[] pairsFromBranch;
+    final double[] pairsWithParent;
+    final double[] pairsLR;
+    final int[] nodeFreq;
+
+    public NumSatSQFlat(int nodeCount, int nDummyTaxa, int[] dummyTaxaToPartitionMap) {
+        this.nodeCount = nodeCount;
+        this.dummyTaxaPartition = dummyTaxaToPartitionMap;
+        this.nDummyTaxa = nDummyTaxa;
+
+        this.totalTaxaCounts = new double[6 * nodeCount];
+        this.realTaxaCounts = new int[6 * nodeCount];
+        this.dummyTaxaWeights = new double[3 * nodeCount * nDummyTaxa];
+
+        this.pairsFromBranch = new double[4 * nodeCount];
+        this.pairsWithParent = new double[4 * nodeCount];
+        this.pairsLR = new double[2 * nodeCount];
+        this.nodeFreq = new int[nodeCount];
+    }
+
+    public static int branchOf(int node, int branchIndex) {
+        return 3 * node + branchIndex;
+    }
+
+    // copies the counts of branch i of the node, made as for NumSatSQBin2
+    public void setBranch(int node, int branchIndex, Branch branch) {
+        int b = branchOf(node, branchIndex);
+        for (int p = 0; p < 2; ++p) {
+            totalTaxaCounts[2 * b + p] = branch.totalTaxaCounts[p];
+            realTaxaCounts[2 * b + p] = branch.realTaxaCounts[p];
+        }
+        System.arraycopy(branch.dummyTaxaWeightsIndividual, 0, dummyTaxaWeights, nDummyTaxa * b, nDummyTaxa);
+    }
+
+    // the pair counts of the node, once its three branches are set
+    public void initNode(int n, int freq) {
+        nodeFreq[n] = freq;
+        int par = 3 * n + 2;
+
+        for (int i = 0; i < 2; ++i) {
+            int c = 3 * n + i;
+            int at = 4 * n + 2 * i;
+
+            for (int p = 0; p < 2; ++p) {
+                pairsFromBranch[at + p] = totalTaxaCounts[2 * c + p] * totalTaxaCounts[2 * c + p] - realTaxaCounts[2 * c + p];
+                pairsWithParent[at + p] = totalTaxaCounts[2 * c + p] * totalTaxaCounts[2 * par + p];
+            }
+
+            for (int j = 0; j < nDummyTaxa; ++j) {
+                int p = dummyTaxaPartition[j];
+                double wc = dummyTaxaWeights[nDummyTaxa * c + j];
+                pairsFromBranch[at + p] -= wc * wc;
+                pairsWithParent[at + p] -= wc * dummyTaxaWeights[nDummyTaxa * par + j];
+            }
+
+            pairsFromBranch[at] /= 2;
+            pairsFromBranch[at + 1] /= 2;
+        }
+        int c0 = 3 * n, c1 = 3 * n + 1;
+        for (int p = 0; p < 2; ++p) {
+            pairsLR[2 * n + p] = totalTaxaCounts[2 * c0 + p] * totalTaxaCounts[2 * c1 + p];
+        }
+        for (int j = 0; j < nDummyTaxa; ++j) {
+            int partition = dummyTaxaPartition[j];
+            pairsLR[2 * n + partition] -= dummyTaxaWeights[nDummyTaxa * c0 + j] * dummyTaxaWeights[nDummyTaxa * c1 + j];
+        }
+    }
+
+    public double sat(int n) {
+        double[] pfb = pairsFromBranch, pwp = pairsWithParent;
+        int at = 4 * n;
+        double sat = 0;
+
+        sat += pfb[at] * pfb[at + 3];
+        sat += pfb[at + 1] * pfb[at + 2];
+
+        sat += pfb[at] * pwp[at + 3];
+        sat += pfb[at + 1] * pwp[at + 2];
+        sat += pfb[at + 2] * pwp[at + 1];
+        sat += pfb[at + 3] * pwp[at];
+
+        return sat * nodeFreq[n];
+    }
+
+    public double vio(int n) {
+        double[] pwp = pairsWithParent;
+        int at = 4 * n;
+        double lr0 = pairsLR[2 * n], lr1 = pairsLR[2 * n + 1];
+        double vio = 0;
+        vio += (lr0 * lr1);
+        vio += lr0 * (pwp[at + 1] + pwp[at + 3]);
+        vio += lr1 * (pwp[at] + pwp[at + 2]);
+
+        return vio * nodeFreq[n];
+    }
+
+    public void transferRealTaxon(int n, int branchIndex, int currPartition) {
+        int cp = currPartition, op = 1 - currPartition;
+        double[] total = totalTaxaCounts;
+        if (branchIndex == 2) {
+            for (int i = 0; i < 2; ++i) {
+                int c = 3 * n + i;
+                pairsWithParent[4 * n + 2 * i + cp] -= total[2 * c + cp];
+                pairsWithParent[4 * n + 2 * i + op] += total[2 * c + op];
+            }
+        } else {
+            int c = 3 * n + branchIndex, other = 3 * n + 1 - branchIndex, par = 3 * n + 2;
+            int at = 4 * n + 2 * branchIndex;
+
+            pairsFromBranch[at + cp] -= total[2 * c + cp] - 1;
+            pairsFromBranch[at + op] += total[2 * c + op];
+
+            pairsWithParent[at + cp] -= total[2 * par + cp];
+            pairsWithParent[at + op] += total[2 * par + op];
+
+            pairsLR[2 * n + cp] -= total[2 * other + cp];
+            pairsLR[2 * n + op] += total[2 * other + op];
+        }
+    }
+
+    public void transferDummyTaxon(int n, int dummyIndex, int currPartition) {
+        int cp = currPartition, op = 1 - currPartition;
+        double[] total = totalTaxaCounts;
+        int c0 = 3 * n, c1 = 3 * n + 1, par = 3 * n + 2;
+        double wo = dummyTaxaWeights[nDummyTaxa * c0 + dummyIndex];
+        double w1 = dummyTaxaWeights[nDummyTaxa * c1 + dummyIndex];
+        double wp = dummyTaxaWeights[nDummyTaxa * par + dummyIndex];
+        int at = 4 * n;
+
+        pairsFromBranch[at + cp] -= (total[2 * c0 + cp] - wo) * wo;
+        pairsFromBranch[at + op] += (total[2 * c0 + op]) * wo;
+
+        pairsFromBranch[at + 2 + cp] -= (total[2 * c1 + cp] - w1) * w1;
+        pairsFromBranch[at + 2 + op] += (total[2 * c1 + op]) * w1;
+
+        pairsLR[2 * n + cp] -= (wo * (total[2 * c1 + cp] - w1) + w1 * (total[2 * c0 + cp] - wo));
+        pairsLR[2 * n + op] += (total[2 * c0 + op] * w1 + total[2 * c1 + op] * wo);
+
+        pairsWithParent[at + cp] -= (wo * (total[2 * par + cp] - wp) + wp * (total[2 * c0 + cp] - wo));
+        pairsWithParent[at + op] += (total[2 * par + op] * wo + total[2 * c0 + op] * wp);
+
+        pairsWithParent[at + 2 + cp] -= (w1 * (total[2 * par + cp] - wp) + wp * (total[2 * c1 + cp] - w1));
+        pairsWithParent[at + 2 + op] += (total[2 * par + op] * w1 + total[2 * c1 + op] * wp);
+    }
+
+    public void swapRealTaxa(int branch, int currPartition) {
+        int switchedPartition = 1 - currPartition;
+        totalTaxaCounts[2 * branch + currPartition]--;
+        totalTaxaCounts[2 * branch + switchedPartition]++;
+        realTaxaCounts[2 * branch + currPartition]--;
+        realTaxaCounts[2 * branch + switchedPartition]++;
+    }
+
+    public void swapDummyTaxon(int branch, int index, int currPartition) {
+        double weight = dummyTaxaWeights[nDummyTaxa * branch + index];
+        int switchedPartition = 1 - currPartition;
+        totalTaxaCounts[2 * branch + currPartition] -= weight;
+        totalTaxaCounts[2 * branch + switchedPartition] += weight;
+    }
+
+    // gains in sat and vio of moving a real taxon of child i out of partition p at 2 * i + p, of the parent at 4 + p,
+    // 0 where the branch has no real taxon in p. worked out from the changes transferRealTaxon would make to the
+    // pair counts, which sat and vio are linear or quadratic in, so nothing is changed and undone
+    public void gainRealTaxa(int n, double[] satGains, double[] vioGains) {
+        double[] pfb = pairsFromBranch, pwp = pairsWithParent, total = totalTaxaCounts;
+        int at = 4 * n, t = 6 * n;
+        double freq = nodeFreq[n];
+        double l0 = pairsLR[2 * n], l1 = pairsLR[2 * n + 1];
+        double s0 = pwp[at] + pwp[at + 2], s1 = pwp[at + 1] + pwp[at + 3];
+
+        for (int i = 0; i < 2; ++i) {
+            int j = 1 - i;
+            for (int p = 0; p < 2; ++p) {
+                int k = 2 * i + p, o = 1 - p;
+                if (realTaxaCounts[t + k] == 0) {
+                    satGains[k] = vioGains[k] = 0;
+                    continue;
+                }
+                // pairs of the other child, totals of this child, the other child and the parent
+                double ajp = pfb[at + 2 * j + p], ajo = pfb[at + 2 * j + o];
+                double wjp = pwp[at + 2 * j + p], wjo = pwp[at + 2 * j + o];
+                double tip = total[t + k], tio = total[t + 2 * i + o];
+                double tjp = total[t + 2 * j + p], tjo = total[t + 2 * j + o];
+                double tpp = total[t + 4 + p], tpo = total[t + 4 + o];
+
+                satGains[k] = freq * (tio * (ajp + wjp) - (tip - 1) * (ajo + wjo) + ajp * tpo - ajo * tpp);
+                vioGains[k] = freq * (p == 0
+                    ? vioDelta(l0, l1, s0, s1, -tjp, tjo, -tpp, tpo)
+                    : vioDelta(l0, l1, s0, s1, tjo, -tjp, tpo, -tpp));
+            }
+        }
+
+        for (int p = 0; p < 2; ++p) {
+            int k = 4 + p, o = 1 - p;
+            if (realTaxaCounts[t + k] == 0) {
+                satGains[k] = vioGains[k] = 0;
+                continue;
+            }
+            double t0p = total[t + p], t0o = total[t + o], t1p = total[t + 2 + p], t1o = total[t + 2 + o];
+            double a0p = pfb[at + p], a0o = pfb[at + o], a1p = pfb[at + 2 + p], a1o = pfb[at + 2 + o];
+
+            satGains[k] = freq * (a1p * t0o - a1o * t0p + a0p * t1o - a0o * t1p);
+            vioGains[k] = freq * (p == 0
+                ? vioDelta(l0, l1, s0, s1, 0, 0, -(t0p + t1p), t0o + t1o)
+                : vioDelta(l0, l1, s0, s1, 0, 0, t0o + t1o, -(t0p + t1p)));
+        }
+    }
+
+    // change of vio when pairsLR[p] changes by d_p and the sum of pairsWithParent[i][p] by e_p
+    private static double vioDelta(double l0, double l1, double s0, double s1, double d0, double d1, double e0, double e1) {
+        return d0 * (l1 + d1 + s1 + e1) + l0 * (d1 + e1) + d1 * (s0 + e0) + l1 * e0;
+    }
+
+    // adds the gain of moving every dummy taxon to dummyTaxaGains, sat when vio is false
+    public void gainDummyTaxa(int n, boolean vio, double[] dummyTaxaGains, double curr) {
+        int c0 = 3 * n, c1 = 3 * n + 1, par = 3 * n + 2;
+        for (int i = 0; i < nDummyTaxa; ++i) {
+            int currPartition = dummyTaxaPartition[i];
+
+            transferDummyTaxon(n, i, currPartition);
+            swapDummyTaxon(c0, i, currPartition);
+            swapDummyTaxon(c1, i, currPartition);
+            swapDummyTaxon(par, i, currPartition);
+
+            dummyTaxaGains[i] += ((vio ? vio(n) : sat(n)) - curr);
+
+            transferDummyTaxon(n, i, 1 - currPartition);
+            swapDummyTaxon(c0, i, 1 - currPartition);
+            swapDummyTaxon(c1, i, 1 - currPartition);
+            swapDummyTaxon(par, i, 1 - currPartition);
+        }
+    }
+
+    public Node node(int n) {
+        return new Node(this, n);
+    }
+
+    public static class Node implements NumSatSQ {
+        final NumSatSQFlat engine;
+        final int n;
+
+        Node(NumSatSQFlat engine, int n) {
+            this.engine = engine;
+            this.n = n;
+        }
+
+        @Override
+        public void transferDummyTaxon(int dummyIndex, int currPartition) {
+            engine.transferDummyTaxon(n, dummyIndex, currPartition);
+        }
+
+        @Override
+        public void transferRealTaxon(int branchIndex, int currPartition) {
+            engine.transferRealTaxon(n, branchIndex, currPartition);
+        }
+
+        @Override
+        public double sat() {
+            return engine.sat(n);
+        }
+
+        @Override
+        public double vio() {
+            return engine.vio(n);
+        }
+
+        private RTGainReturnType gainRealTaxa(boolean vio) {
+            double[] satGains = new double[6], vioGains = new double[6];
+            engine.gainRealTaxa(n, satGains, vioGains);
+            double[] flat = vio ? vioGains : satGains;
+            RTGainReturnType gains = new RTGainReturnType();
+            gains.childGains = new double[][] { { flat[0], flat[1] }, { flat[2], flat[3] } };
+            gains.parentGain = new double[] { flat[4], flat[5] };
+            return gains;
+        }
+
+        @Override
+        public RTGainReturnType gainSatRealTaxa(double currSat) {
+            return gainRealTaxa(false);
+        }
+
+        @Override
+        public RTGainReturnType gainVioRealTaxa(double currVio) {
+            return gainRealTaxa(true);
+        }
+
+        @Override
+        public void gainSatDummyTaxa(double[] a, double currSat) {
+            engine.gainDummyTaxa(n, false, a, currSat);
+        }
+
+        @Override
+        public void gainVioDummyTaxa(double[] a, double currVio) {
+            engine.gainDummyTaxa(n, true, a, currVio);
+        }
+    }
+}
@@ -80,7 +80,7 @@ public class DummyTaxon {
         Config.ScoreNormalizationType normalizationType, 
         double[] coeffs, 
         double multiplier,
-        boolean[] realTaxaPresent
+        TaxonSet realTaxaPresent
     ) {
         if(normalizationType == Config.ScoreNormalizationType.NO_NORMALIZATION){
             for(var x : this.flattenedRealTaxa)
@@ -93,7 +93,7 @@ public class DummyTaxon {
         else if(normalizationType == Config.ScoreNormalizationType.NESTED_NORMALIZATION){
             double sz = 0;
             for(var x : this.realTaxa){
-                if(realTaxaPresent[x.id]){
+                if(realTaxaPresent.contains(x.id)){
                     sz += 1;
                 }
             }
@@ -101,7 +101,7 @@ public class DummyTaxon {
             for(int i = 0; i < this.dummyTaxa.length; ++i){
                 boolean hasPresent = false;
                 for(var y : this.dummyTaxa[i].flattenedRealTaxa){
-                    if(realTaxaPresent[y.id]){
+                    if(realTaxaPresent.contains(y.id)){
                         hasPresent = true;
                         break;
                     }
@@ -113,7 +113,7 @@ public class DummyTaxon {
             }
 
             for(var x : this.realTaxa){
-                if(realTaxaPresent[x.id]){
+                if(realTaxaPresent.contains(x.id)){
                     coeffs[x.id] = sz * multiplier;
                 }
             }
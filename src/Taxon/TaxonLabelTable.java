@@ -0,0 +1,133 @@
+package src.Taxon;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+// Resolves taxon labels straight from the UTF-8 bytes of a newick line, so no String is built per leaf.
+// Open addressing table, lookups do not lock. A lookup that misses retries under the lock,
+// where a new taxon is added when the table interns new labels. New taxa get the next id in the order
+// they are added, which is only a provisional id until the labels are sorted.
+public class TaxonLabelTable {
+
+    private static final class Entry {
+        final byte[] label;
+        final int hash;
+        final RealTaxon taxon;
+
+        Entry(byte[] label, int hash, RealTaxon taxon) {
+            this.label = label;
+            this.hash = hash;
+            this.taxon = taxon;
+        }
+    }
+
+    private volatile Entry[] table;
+    private int size;
+    private final boolean internNewTaxa;
+    // taxa added by intern, by the id they were given
+    private final ArrayList<RealTaxon> interned;
+
+    // with internNewTaxa, missing labels are added with the next id
+    public TaxonLabelTable(boolean internNewTaxa) {
+        this.internNewTaxa = internNewTaxa;
+        this.table = new Entry[64];
+        this.size = 0;
+        this.interned = new ArrayList<>();
+    }
+
+    public static TaxonLabelTable fromMap(Map<String, RealTaxon> taxaMap) {
+        TaxonLabelTable labelTable = new TaxonLabelTable(false);
+        for (var x : taxaMap.entrySet()) {
+            labelTable.insert(x.getKey().getBytes(StandardCharsets.UTF_8), x.getValue());
+        }
+        return labelTable;
+    }
+
+    private static int hash(byte[] buffer, int from, int to) {
+        int h = 0;
+        for (int i = from; i < to; ++i) {
+            h = 31 * h + buffer[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static RealTaxon find(Entry[] entries, byte[] buffer, int from, int to, int h) {
+        int mask = entries.length - 1;
+        int len = to - from;
+        for (int i = h & mask;; i = (i + 1) & mask) {
+            Entry e = entries[i];
+            if (e == null)
+                return null;
+            if (e.hash == h && e.label.length == len) {
+                boolean equal = true;
+                for (int k = 0; k < len; ++k) {
+                    if (e.label[k] != buffer[from + k]) {
+                        equal = false;
+                        break;
+                    }
+                }
+                if (equal)
+                    return e.taxon;
+            }
+        }
+    }
+
+    public RealTaxon lookup(byte[] buffer, int from, int to) {
+        int h = hash(buffer, from, to);
+        RealTaxon taxon = find(table, buffer, from, to, h);
+        if (taxon != null || !internNewTaxa)
+            return taxon;
+        return intern(buffer, from, to, h);
+    }
+
+    private synchronized RealTaxon intern(byte[] buffer, int from, int to, int h) {
+        // another thread may have added it after the unlocked lookup
+        RealTaxon taxon = find(table, buffer, from, to, h);
+        if (taxon != null)
+            return taxon;
+        byte[] label = new byte[to - from];
+        System.arraycopy(buffer, from, label, 0, label.length);
+        taxon = new RealTaxon(interned.size(), new String(label, StandardCharsets.UTF_8));
+        insert(label, taxon);
+        interned.add(taxon);
+        return taxon;
+    }
+
+    // the taxa added so far, taxon i is the one given id i when it was added
+    public synchronized RealTaxon[] internedTaxa() {
+        return interned.toArray(new RealTaxon[0]);
+    }
+
+    private synchronized void insert(byte[] label, RealTaxon taxon) {
+        if (2 * (size + 1) > table.length) {
+            Entry[] grown = new Entry[table.length * 2];
+            for (Entry e : table) {
+                if (e != null)
+                    place(grown, e);
+            }
+            table = grown;
+        }
+        place(table, new Entry(label, hash(label, 0, label.length), taxon));
+        size++;
+    }
+
+    private static void place(Entry[] entries, Entry entry) {
+        int mask = entries.length - 1;
+        int i = entry.hash & mask;
+        while (entries[i] != null) {
+            i = (i + 1) & mask;
+        }
+        entries[i] = entry;
+    }
+
+    public synchronized Map<String, RealTaxon> toMap() {
+        Map<String, RealTaxon> taxaMap = new HashMap<>();
+        for (Entry e : table) {
+            if (e != null)
+                taxaMap.put(e.taxon.label, e.taxon);
+        }
+        return taxaMap;
+    }
+}
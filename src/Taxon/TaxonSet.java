@@ -0,0 +1,150 @@
+package src.Taxon;
+
+import java.util.Arrays;
+
+import src.Utility;
+
+// Set of real taxa by id, 64 taxa per word.
+// Sets that are combined must be made for the same taxon count, the operations work a word at a time.
+public class TaxonSet {
+
+    public final long[] words;
+
+    public TaxonSet(int taxonCount) {
+        this.words = new long[(taxonCount + 63) >>> 6];
+    }
+
+    private TaxonSet(long[] words) {
+        this.words = words;
+    }
+
+    public TaxonSet copy() {
+        return new TaxonSet(words.clone());
+    }
+
+    public boolean contains(int id) {
+        return (words[id >>> 6] & (1L << id)) != 0;
+    }
+
+    public void add(int id) {
+        words[id >>> 6] |= 1L << id;
+    }
+
+    public void remove(int id) {
+        words[id >>> 6] &= ~(1L << id);
+    }
+
+    // this = this | other
+    public void addAll(TaxonSet other) {
+        for (int w = 0; w < words.length; ++w)
+            words[w] |= other.words[w];
+    }
+
+    // this = this & ~other
+    public void removeAll(TaxonSet other) {
+        for (int w = 0; w < words.length; ++w)
+            words[w] &= ~other.words[w];
+    }
+
+    // this = this & other
+    public void retainAll(TaxonSet other) {
+        for (int w = 0; w < words.length; ++w)
+            words[w] &= other.words[w];
+    }
+
+    public TaxonSet intersection(TaxonSet other) {
+        TaxonSet set = copy();
+        set.retainAll(other);
+        return set;
+    }
+
+    public boolean intersects(TaxonSet other) {
+        for (int w = 0; w < words.length; ++w) {
+            if ((words[w] & other.words[w]) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    // this == a & ~b
+    public boolean isDifference(TaxonSet a, TaxonSet b) {
+        for (int w = 0; w < words.length; ++w) {
+            if (words[w] != (a.words[w] & ~b.words[w]))
+                return false;
+        }
+        return true;
+    }
+
+    // the same set made for taxonCount taxa, at least as many as it was made for
+    public TaxonSet widened(int taxonCount) {
+        return new TaxonSet(Arrays.copyOf(words, (taxonCount + 63) >>> 6));
+    }
+
+    // the set with every taxon i renamed to newId[i], made for taxonCount taxa
+    public TaxonSet renamed(int[] newId, int taxonCount) {
+        TaxonSet set = new TaxonSet(taxonCount);
+        for (int i = nextSetBit(0); i != -1; i = nextSetBit(i + 1))
+            set.add(newId[i]);
+        return set;
+    }
+
+    public boolean isEmpty() {
+        for (long word : words) {
+            if (word != 0)
+                return false;
+        }
+        return true;
+    }
+
+    public int cardinality() {
+        int count = 0;
+        for (long word : words)
+            count += Long.bitCount(word);
+        return count;
+    }
+
+    // smallest id at least from in the set, or -1
+    public int nextSetBit(int from) {
+        int w = from >>> 6;
+        if (w >= words.length)
+            return -1;
+        long word = words[w] & (-1L << from);
+        while (true) {
+            if (word != 0)
+                return (w << 6) + Long.numberOfTrailingZeros(word);
+            if (++w == words.length)
+                return -1;
+            word = words[w];
+        }
+    }
+
+    // order independent 128 bit fingerprint, the sum of the keys of the taxa.
+    // the fingerprint of a union of disjoint sets is the sum of theirs, of a difference with a subset the difference
+    public long fingerprintHi() {
+        long h = 0;
+        for (int w = 0; w < words.length; ++w) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1)
+                h += Utility.taxonKeyHi((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        return h;
+    }
+
+    public long fingerprintLo() {
+        long l = 0;
+        for (int w = 0; w < words.length; ++w) {
+            for (long bits = words[w]; bits != 0; bits &= bits - 1)
+                l += Utility.taxonKeyLo((w << 6) + Long.numberOfTrailingZeros(bits));
+        }
+        return l;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof TaxonSet && Arrays.equals(words, ((TaxonSet) o).words);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(words);
+    }
+}
@@ -0,0 +1,50 @@
+package src;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import src.Taxon.RealTaxon;
+import src.Taxon.TaxonLabelTable;
+import src.Tree.Tree;
+
+// checks that leaf labels with an underscore in the species name are read as they are by default,
+// and cut only when a species delimiter is given
+public class TestNewick {
+
+    static Map<String, RealTaxon> readLabels(String... lines){
+        TaxonLabelTable labelTable = new TaxonLabelTable(true);
+        for(String line : lines){
+            byte[] newick = line.getBytes(StandardCharsets.UTF_8);
+            new Tree(newick, 0, newick.length, labelTable);
+        }
+        return labelTable.toMap();
+    }
+
+    static void check(boolean ok, String what){
+        if(!ok){
+            System.out.println("Failed: " + what);
+            System.exit(-1);
+        }
+        System.out.println("Passed: " + what);
+    }
+
+    public static void underscoredSpecies(){
+        String line = "((Homo_sapiens,Homo_erectus),('Pan_troglodytes':0.1,Gorilla_gorilla));";
+
+        Config.SPECIES_DELIMITER = -1;
+        Map<String, RealTaxon> taxa = readLabels(line);
+        check(taxa.size() == 4, "four species by default");
+        check(taxa.containsKey("Homo_sapiens") && taxa.containsKey("Homo_erectus"), "Homo_sapiens and Homo_erectus kept apart");
+        check(taxa.containsKey("Pan_troglodytes"), "quoted label kept whole");
+
+        Config.SPECIES_DELIMITER = '_';
+        taxa = readLabels(line);
+        check(taxa.size() == 3 && taxa.containsKey("Homo"), "cut at '_' with a species delimiter");
+
+        Config.SPECIES_DELIMITER = -1;
+    }
+
+    public static void main(String[] args){
+        underscoredSpecies();
+    }
+}
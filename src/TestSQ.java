@@ -1,6 +1,6 @@
 package src;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
 
 import src.DSPerLevel.BookKeepingPerLevelDC;
 import src.DSPerLevel.TaxaPerLevelWithPartition;
@@ -10,7 +10,7 @@ import src.Taxon.RealTaxon;
 
 public class TestSQ {
 
-    public static void proTC() throws FileNotFoundException{
+    public static void proTC() throws IOException{
         String inputFilePath = "./input/t.txt";
         // String inputFilePath = "./input/n10ProRooted.cleaned";
         Preprocess.PreprocessReturnType ret = Preprocess.preprocess(inputFilePath);
@@ -74,12 +74,12 @@ public class TestSQ {
 
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
+    public static void main(String[] args) throws IOException {
         proTC();
         // System.out.println("Hello, World!");
     }
 
-    public static void proTC2() throws FileNotFoundException{
+    public static void proTC2() throws IOException{
         String inputFilePath = "./input/t2.txt";
         // String inputFilePath = "./input/n10ProRooted.cleaned";
         Preprocess.PreprocessReturnType ret = Preprocess.preprocess(inputFilePath);
@@ -0,0 +1,146 @@
+package src.Tree;
+
+import java.nio.charset.StandardCharsets;
+
+// Splits a newick line into tokens while cleaning it on the fly.
+// Whitespace, [comments] and :branch lengths are skipped, quoted labels are unquoted
+// and, when a species delimiter is set, a species_copy label is cut down to its species.
+// Unquoted labels point into the input, only quoted labels are copied.
+public class NewickScanner {
+
+    public static final int END = 0;
+    public static final int OPEN = 1;
+    public static final int CLOSE = 2;
+    public static final int COMMA = 3;
+    public static final int SEMICOLON = 4;
+    public static final int LABEL = 5;
+
+    private final byte[] newick;
+    private final int to;
+    private final int speciesDelimiter;
+    private int pos;
+
+    // the last label is label[labelFrom, labelTo)
+    public byte[] label;
+    public int labelFrom;
+    public int labelTo;
+
+    private byte[] quoted;
+
+    // speciesDelimiter < 0 keeps labels as they are
+    public NewickScanner(byte[] newick, int from, int to, int speciesDelimiter) {
+        this.newick = newick;
+        this.pos = from;
+        this.to = to;
+        this.speciesDelimiter = speciesDelimiter;
+        this.quoted = null;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+
+    private static boolean endsLabel(byte b) {
+        return b == '(' || b == ')' || b == ',' || b == ':' || b == ';' || b == '[' || isWhitespace(b);
+    }
+
+    public int next() {
+        while (pos < to) {
+            byte curr = newick[pos];
+            if (isWhitespace(curr)) {
+                ++pos;
+            } else if (curr == '[') {
+                while (pos < to && newick[pos] != ']')
+                    ++pos;
+                ++pos;
+            } else if (curr == ':') {
+                ++pos;
+                while (pos < to && !endsLabel(newick[pos]))
+                    ++pos;
+            } else if (curr == '(') {
+                ++pos;
+                return OPEN;
+            } else if (curr == ')') {
+                ++pos;
+                return CLOSE;
+            } else if (curr == ',') {
+                ++pos;
+                return COMMA;
+            } else if (curr == ';') {
+                ++pos;
+                return SEMICOLON;
+            } else if (curr == '\'') {
+                readQuotedLabel();
+                return LABEL;
+            } else {
+                int start = pos;
+                while (pos < to && !endsLabel(newick[pos]))
+                    ++pos;
+                setLabel(newick, start, pos);
+                return LABEL;
+            }
+        }
+        return END;
+    }
+
+    // '' inside a quoted label stands for a single quote
+    private void readQuotedLabel() {
+        if (quoted == null || quoted.length < to - pos)
+            quoted = new byte[to - pos];
+        int len = 0;
+        ++pos;
+        while (pos < to) {
+            byte curr = newick[pos++];
+            if (curr == '\'') {
+                if (pos < to && newick[pos] == '\'') {
+                    ++pos;
+                } else {
+                    break;
+                }
+            }
+            quoted[len++] = curr;
+        }
+        setLabel(quoted, 0, len);
+    }
+
+    private void setLabel(byte[] buffer, int from, int to) {
+        this.label = buffer;
+        this.labelFrom = from;
+        this.labelTo = to;
+        if (speciesDelimiter >= 0) {
+            for (int i = from; i < to; ++i) {
+                if (buffer[i] == speciesDelimiter) {
+                    this.labelTo = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    // weight of a tree written as a leading [&W n] comment, 1 if there is none and NaN if it can not be read
+    public static double leadingWeight(byte[] newick, int from, int to) {
+        int pos = from;
+        while (pos < to && isWhitespace(newick[pos]))
+            ++pos;
+        if (pos + 2 >= to || newick[pos] != '[' || newick[pos + 1] != '&' || (newick[pos + 2] != 'W' && newick[pos + 2] != 'w'))
+            return 1;
+        int start = pos + 3, end = start;
+        while (end < to && newick[end] != ']')
+            ++end;
+        try {
+            return Double.parseDouble(new String(newick, start, end - start, StandardCharsets.US_ASCII).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    public boolean labelEquals(String s) {
+        if (labelTo - labelFrom != s.length())
+            return false;
+        for (int i = 0; i < s.length(); ++i) {
+            if (label[labelFrom + i] != s.charAt(i))
+                return false;
+        }
+        return true;
+    }
+}
@@ -1,5 +1,6 @@
 package src.Tree;
 
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -8,9 +9,13 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
 
+import src.Config;
+import src.PreProcessing.InternodeDistances;
 import src.Quartets.QuartestsList;
 import src.Quartets.Quartet;
 import src.Taxon.RealTaxon;
+import src.Taxon.TaxonLabelTable;
+import src.Utility;
 import src.Utility.Pair;
 
 // Leafs are real taxon
@@ -27,8 +32,21 @@ public class Tree {
     // public TreeNode[] leaves;
     // leavesCount and size of leaves array may be different
     public int leavesCount;
+    // number of copies of this tree in the input, set by a leading [&W n]
+    public int multiplicity = 1;
+
+    private TaxonLabelTable labelTable;
     
 
+    public void updateTaxaInTree(){
+        this.taxaInTreeIds.clear();
+        for(var x : nodes){
+            if(x.isLeaf()){
+                this.taxaInTreeIds.add(x.taxon.id);
+            }
+        }
+    }
+
     public TreeNode addNode(ArrayList<TreeNode> children, TreeNode parent){
 
         TreeNode nd = new TreeNode().setIndex(nodes.size()).setChilds(children).setParent(parent);
@@ -51,6 +69,13 @@ public class Tree {
 
 
     private void parseFromNewick(String newickLine){
+        byte[] newick = newickLine.getBytes(StandardCharsets.UTF_8);
+        parseFromNewick(newick, 0, newick.length);
+    }
+
+    // parses newick[from, to), leaf labels are resolved through the label table without building strings
+    // branch lengths, support values and comments are skipped while reading
+    private void parseFromNewick(byte[] newick, int from, int to){
 
         // Map<String, RealTaxon> taxaMap = new HashMap<>();
         int leavesCount = 0;
@@ -58,69 +83,51 @@ public class Tree {
         nodes = new ArrayList<>();
     
         Stack<TreeNode> nodes = new Stack<>();
-        newickLine.replaceAll("\\s", "");
-    
-        int n =  newickLine.length();
-    
-        int i = 0, j = 0;
+
+        double weight = NewickScanner.leadingWeight(newick, from, to);
+        if(!(weight >= 0 && weight == Math.rint(weight) && weight <= Integer.MAX_VALUE)){
+            System.out.println("Tree weight must be a non negative whole number: " + new String(newick, from, to - from, StandardCharsets.UTF_8));
+            System.exit(-1);
+        }
+        this.multiplicity = (int) weight;
+
+        NewickScanner scanner = new NewickScanner(newick, from, to, Config.SPECIES_DELIMITER);
+        // a label right after ')' belongs to that internal node
+        TreeNode lastClosed = null;
+        int token;
     
-        while(i < n){
-            char curr = newickLine.charAt(i);
-            if(curr == '('){
+        while((token = scanner.next()) != NewickScanner.END){
+            if(token == NewickScanner.OPEN){
                 nodes.push(null);
+                lastClosed = null;
             }
-            else if(curr == ')'){
+            else if(token == NewickScanner.CLOSE){
                 ArrayList<TreeNode> arr = new ArrayList<>();
                 while( !nodes.isEmpty() && nodes.peek() != null){
                     arr.add(nodes.pop());
                 }
                 if(!nodes.isEmpty())
                     nodes.pop();
-                nodes.push(addInternalNode(arr));
+                lastClosed = addInternalNode(arr);
+                nodes.push(lastClosed);
                 
             }
-            else if(curr == ',' || curr == ';'){
-    
-            }
-            else{
-                StringBuilder taxa = new StringBuilder();
-                j = i;
-                TreeNode newNode = null;
-                while(j < n){
-                    char curr_j = newickLine.charAt(j);
-                    if(curr_j == ')' || curr_j == ','){
-                        RealTaxon taxon;
-                        // if(this.taxaMap != null){
-                            taxon = this.taxaMap.get(taxa.toString());
-                        // }
-                        // else{
-                        //     taxon = new RealTaxon(taxa.toString());
-                        //     taxaMap.put(taxon.label, taxon);
-                        // }   
-                        newNode = addLeaf(taxon);
-                        leavesCount++;
-
-                        break;
+            else if(token == NewickScanner.LABEL){
+                if(lastClosed != null){
+                    if(Config.USE_EXTERNAL_TAGGING && scanner.labelEquals("D")){
+                        lastClosed.dupplicationNode = true;
                     }
-                    taxa.append(curr_j);
-                    ++j;
                 }
-                if(j == n){
+                else{
+                    RealTaxon taxon = labelTable.lookup(scanner.label, scanner.labelFrom, scanner.labelTo);
                     leavesCount++;
-                    RealTaxon taxon;
-                    // if(this.taxaMap != null){
-                        taxon = this.taxaMap.get(taxa.toString());
-                    // }
-                    // else{
-                    //     taxon = new RealTaxon(taxa.toString());
-                    //     taxaMap.put(taxon.label, taxon);
-                    // }   
-                    newNode = addLeaf(taxon);
+                    nodes.push(addLeaf(taxon));
                 }
-                i = j - 1;
-                nodes.push(newNode);
+                lastClosed = null;
+            }
+            else{
+                lastClosed = null;
             }
-            ++i;
         }
 
         // if(this.taxaMap == null)
@@ -129,11 +136,7 @@ public class Tree {
         // this.leavesCount = this.taxaMap.size();
         this.leavesCount = leavesCount;
 
-        for(var x : nodes){
-            if(x.isLeaf()){
-                this.taxaInTreeIds.add(x.taxon.id);
-            }
-        }
+        updateTaxaInTree();
     
         root = nodes.lastElement();
         
@@ -164,6 +167,22 @@ public class Tree {
 
     }
 
+    // interns the leaf labels of newick[from, to) without building the tree
+    // labels are read the same way parseFromNewick reads them
+    public static int internLeafLabels(byte[] newick, int from, int to, TaxonLabelTable labelTable){
+        int leaves = 0;
+        NewickScanner scanner = new NewickScanner(newick, from, to, Config.SPECIES_DELIMITER);
+        int token, last = NewickScanner.END;
+        while((token = scanner.next()) != NewickScanner.END){
+            if(token == NewickScanner.LABEL && last != NewickScanner.CLOSE){
+                labelTable.lookup(scanner.label, scanner.labelFrom, scanner.labelTo);
+                leaves++;
+            }
+            last = token;
+        }
+        return leaves;
+    }
+
     // private void filterLeaves(){
     //     this.leaves = new TreeNode[this.taxaMap.size()];
     //     for(var x : nodes){
@@ -173,55 +192,99 @@ public class Tree {
     //     }
     // }
 
-    public ArrayList<Integer> resolveNonBinaryUtil(TreeNode node, double[][] distanceMatrix){
-        if(node.isLeaf()){
-            return new ArrayList<>(Arrays.asList(node.taxon.id));
-        }
-        var reachableFromChilds = new ArrayList<ArrayList<Integer>>();
-        for(var x : node.childs){
-            reachableFromChilds.add(resolveNonBinaryUtil(x, distanceMatrix));
-        }
-        var allReachableFromChilds = new ArrayList<Integer>();
-        for(var x : reachableFromChilds){
-            allReachableFromChilds.addAll(x);
+    // splits a polytomy by peeling off the child farthest from the other leaves, until two children are left.
+    // the taxa of a child c are leafIds[firstLeaf[c], endLeaf[c]). the distance sum of every child to the leaves
+    // left is summed once and lessened by each peeled child, so a polytomy over L leaves takes O(L^2)
+    private void resolvePolytomy(TreeNode node, int[] leafIds, int[] firstLeaf, int[] endLeaf, InternodeDistances distances){
+        TreeNode[] childs = node.childs.toArray(new TreeNode[0]);
+        int k = childs.length;
+        double[] sums = new double[k];
+        double scale = 0;
+        for(int i = 0; i < k; ++i){
+            int c = childs[i].index;
+            double sum = 0;
+            for(int a = firstLeaf[node.index]; a < endLeaf[node.index]; ++a){
+                for(int b = firstLeaf[c]; b < endLeaf[c]; ++b){
+                    sum += distances.distance(leafIds[a], leafIds[b]);
+                }
+            }
+            sums[i] = sum;
+            scale = Math.max(scale, sum);
         }
 
-        if(node.childs.size() > 2){
-            double mxDist = Double.MIN_VALUE;
-            int mxIndex = -1;
-            for(int i = 0; i < node.childs.size(); ++i){
-                double currDist = 0;
-                for(var a : allReachableFromChilds){
-                    for(var b : reachableFromChilds.get(i)){
-                        currDist += distanceMatrix[a][b];
+        // positions of the children left, in their order
+        int[] left = new int[k];
+        for(int i = 0; i < k; ++i){
+            left[i] = i;
+        }
+        int count = k;
+        TreeNode current = node;
+        while(count > 2){
+            // distances are never negative, the first farthest child is peeled. sums that were lessened can be
+            // off by rounding, so children that tie when summed afresh are taken as tied within a margin
+            // relative to the sums before any child was peeled
+            double max = sums[left[0]];
+            for(int j = 1; j < count; ++j){
+                max = Math.max(max, sums[left[j]]);
+            }
+            int best = 0;
+            while(sums[left[best]] < max - scale * 1e-9){
+                ++best;
+            }
+            int p = left[best];
+            System.arraycopy(left, best + 1, left, best, count - best - 1);
+            --count;
+
+            int pc = childs[p].index;
+            ArrayList<TreeNode> rest = new ArrayList<>(count);
+            for(int j = 0; j < count; ++j){
+                int i = left[j];
+                rest.add(childs[i]);
+                if(count == 2)
+                    continue;
+                int c = childs[i].index;
+                double sum = 0;
+                for(int a = firstLeaf[pc]; a < endLeaf[pc]; ++a){
+                    for(int b = firstLeaf[c]; b < endLeaf[c]; ++b){
+                        sum += distances.distance(leafIds[a], leafIds[b]);
                     }
                 }
-                if(currDist > mxDist){
-                    mxDist = currDist;
-                    mxIndex = i;
-                }
+                sums[i] -= sum;
             }
 
-            var branchI = node.childs.get(mxIndex);
-            node.childs.remove(mxIndex);
-            
-            var newNode = addInternalNode(node.childs);
-            newNode.setParent(node);
-            node.childs = new ArrayList<>();
-            node.childs.add(branchI);
-            node.childs.add(newNode);
-            resolveNonBinaryUtil(newNode, distanceMatrix);
-
+            var newNode = addInternalNode(rest);
+            newNode.setParent(current);
+            current.childs = new ArrayList<>();
+            current.childs.add(childs[p]);
+            current.childs.add(newNode);
+            current = newNode;
         }
-        return allReachableFromChilds;
     }
 
-    public void resolveNonBinary(double[][] distanceMatrix){
-        // System.out.println(root.childs.size());
-        resolveNonBinaryUtil(root, distanceMatrix);
+    // resolves every polytomy in post order. the leaves of a node are a contiguous range of the post order,
+    // and resolving a node only rearranges the inside of its range, so the ranges are taken before any change
+    public void resolveNonBinary(InternodeDistances distances){
+        int n = nodes.size();
+        int[] leafIds = new int[n];
+        int[] firstLeaf = new int[n];
+        int[] endLeaf = new int[n];
+        int leaves = 0;
+        for(int index : postOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf()){
+                firstLeaf[index] = leaves;
+                leafIds[leaves++] = node.taxon.id;
+                endLeaf[index] = leaves;
+                continue;
+            }
+            firstLeaf[index] = node.childs.isEmpty() ? leaves : firstLeaf[node.childs.get(0).index];
+            endLeaf[index] = leaves;
+            if(node.childs.size() > 2){
+                resolvePolytomy(node, leafIds, firstLeaf, endLeaf, distances);
+            }
+        }
         topSort();
     }
-
     
     
     // public Tree(String newickLine){
@@ -231,10 +294,19 @@ public class Tree {
 
     public Tree(String newickLine, Map<String, RealTaxon> taxaMap){
         this.taxaMap = taxaMap;
+        this.labelTable = TaxonLabelTable.fromMap(taxaMap);
         this.taxaInTreeIds = new HashSet<>();
         parseFromNewick(newickLine);
     }
 
+    // parses newick[from, to), taxaMap is left unset, labels are resolved (or interned) by labelTable
+    public Tree(byte[] newick, int from, int to, TaxonLabelTable labelTable){
+        this.taxaMap = null;
+        this.labelTable = labelTable;
+        this.taxaInTreeIds = new HashSet<>();
+        parseFromNewick(newick, from, to);
+    }
+
     public Tree(){
         taxaMap = null;
         this.taxaInTreeIds = new HashSet<>();
@@ -242,17 +314,63 @@ public class Tree {
     }
 
 
-    public int dfs(TreeNode node, ArrayList<Integer> subTreeNodeCount){
-        if(node.childs == null){
-            subTreeNodeCount.set(node.index, 1);
-            return 1;
+    // node indices of the subtree of start in post order, children are visited in their order
+    public int[] postOrder(TreeNode start){
+        int n = nodes.size();
+        int[] order = new int[n];
+        int[] stack = new int[n];
+        // position of the next child to visit, per stack entry
+        int[] nextChild = new int[n];
+        int count = 0, top = 0;
+        stack[0] = start.index;
+        nextChild[0] = 0;
+        while(top >= 0){
+            TreeNode node = nodes.get(stack[top]);
+            if(node.isLeaf() || nextChild[top] == node.childs.size()){
+                order[count++] = stack[top--];
+            }
+            else{
+                TreeNode child = node.childs.get(nextChild[top]++);
+                stack[++top] = child.index;
+                nextChild[top] = 0;
+            }
         }
-        int res = 0;
-        for(var x : node.childs){
-            res += dfs(x, subTreeNodeCount);
+        return count == n ? order : Arrays.copyOf(order, count);
+    }
+
+    // node indices of the subtree of start in pre order, children are visited in their order
+    public int[] preOrder(TreeNode start){
+        int n = nodes.size();
+        int[] order = new int[n];
+        int[] stack = new int[n];
+        int count = 0, top = 0;
+        stack[0] = start.index;
+        while(top >= 0){
+            int index = stack[top--];
+            order[count++] = index;
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf())
+                continue;
+            for(int i = node.childs.size() - 1; i >= 0; --i){
+                stack[++top] = node.childs.get(i).index;
+            }
         }
-        subTreeNodeCount.set(node.index, res + 1);
-        return res + 1;
+        return count == n ? order : Arrays.copyOf(order, count);
+    }
+
+    public int[] subTreeNodeCounts(TreeNode start){
+        int[] subTreeNodeCount = new int[nodes.size()];
+        for(int index : postOrder(start)){
+            TreeNode node = nodes.get(index);
+            int res = 1;
+            if(!node.isLeaf()){
+                for(var x : node.childs){
+                    res += subTreeNodeCount[x.index];
+                }
+            }
+            subTreeNodeCount[index] = res;
+        }
+        return subTreeNodeCount;
     }
 
     // private void bringLeafsToFront(){
@@ -296,26 +414,35 @@ public class Tree {
     private void balanceRoot(){
 
         int n = nodes.size();
-        ArrayList<Integer> subTreeNodeCount = new ArrayList<>(n);
-        for(int i = 0; i < n; ++i)
-            subTreeNodeCount.add(0);
-        dfs(root, subTreeNodeCount);
+        int[] subTreeNodeCount = subTreeNodeCounts(root);
         
         TreeNode closest = root;
         int diff = n;
         int v;
         for(int i = 0; i < n; ++i){
-            v = Math.abs(n/2 - subTreeNodeCount.get(i)); 
+            v = Math.abs(n/2 - subTreeNodeCount[i]); 
             if(v < diff){
                 diff = v;
                 closest = nodes.get(i);
             }
         }
         // System.out.println("diff : " + diff + " node: " + closest.index);
-        TreeNode closestP = closest.parent;
-        closestP.childs.remove(closest);
+        rootAtEdgeAbove(closest);
+        // root = new TreeNode(nodes.size(),null, arr, null);
+        // nodes.add(root);
+
+        // System.out.println(root.toString());
+
+    }
 
-        TreeNode curr = closestP;
+    // puts a new root on the edge between node and its parent, the path up to the old root is reversed.
+    // an old root left with a single child is removed
+    private void rootAtEdgeAbove(TreeNode node){
+        TreeNode oldRoot = root;
+        TreeNode nodeP = node.parent;
+        nodeP.childs.remove(node);
+
+        TreeNode curr = nodeP;
         TreeNode currP, temp;
         currP = curr.parent;
         while(curr != null && currP != null){
@@ -328,15 +455,121 @@ public class Tree {
         }
 
         ArrayList<TreeNode> arr = new ArrayList<>();
-        arr.add(closest);
-        arr.add(closestP);
+        arr.add(node);
+        arr.add(nodeP);
 
         root = addInternalNode(arr) ;
-        // root = new TreeNode(nodes.size(),null, arr, null);
-        // nodes.add(root);
 
-        // System.out.println(root.toString());
+        if(oldRoot != nodeP && oldRoot.childs.size() == 1){
+            TreeNode child = oldRoot.childs.get(0);
+            TreeNode parent = oldRoot.parent;
+            parent.childs.set(parent.childs.indexOf(oldRoot), child);
+            child.setParent(parent);
+            removeNode(oldRoot);
+        }
+    }
+
+    // keeps node indices equal to positions in nodes
+    private void removeNode(TreeNode node){
+        TreeNode last = nodes.remove(nodes.size() - 1);
+        if(last != node){
+            nodes.set(node.index, last);
+            last.index = node.index;
+        }
+    }
+
+    // roots the tree on the edge that gives the fewest duplication nodes, with duplications found as tag() finds them.
+    // one post order pass gives the taxa and duplications below every node and one pre order pass
+    // the taxa and duplications on the other side of every edge, taxa sets are word packed bitsets.
+    // like DISCO, leaf edges are not tried and ties keep the earlier candidate, the current root first
+    public void rerootMinDuplications(){
+        if(root.isLeaf() || root.childs.size() < 2)
+            return;
+
+        int n = nodes.size();
+        int words = taxonWords();
+        long[] down = new long[n * words];
+        int[] downDups = new int[n];
+
+        for(int index : postOrder(root)){
+            TreeNode node = nodes.get(index);
+            int from = index * words;
+            if(node.isLeaf()){
+                int id = node.taxon.id;
+                down[from + (id >>> 6)] |= 1L << id;
+                continue;
+            }
+            boolean overlap = false;
+            for(var child : node.childs){
+                int c = child.index * words;
+                downDups[index] += downDups[child.index];
+                for(int w = 0; w < words; ++w){
+                    if((down[from + w] & down[c + w]) != 0)
+                        overlap = true;
+                    down[from + w] |= down[c + w];
+                }
+            }
+            if(overlap)
+                downDups[index]++;
+        }
+
+        long[] up = new long[n * words];
+        int[] upDups = new int[n];
+        int best = -1;
+        int bestDups = downDups[root.index];
+
+        for(int index : preOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node == root || node.isLeaf())
+                continue;
+
+            // the other side of the edge above node hangs from its parent,
+            // with the parent's own other side (unless it is the root) and node's siblings as children
+            TreeNode parent = node.parent;
+            int from = index * words;
+            int parts = 0;
+            boolean overlap = false;
+            if(parent != root){
+                int p = parent.index * words;
+                System.arraycopy(up, p, up, from, words);
+                upDups[index] = upDups[parent.index];
+                parts++;
+            }
+            for(var sibling : parent.childs){
+                if(sibling == node)
+                    continue;
+                int c = sibling.index * words;
+                upDups[index] += downDups[sibling.index];
+                for(int w = 0; w < words; ++w){
+                    if((up[from + w] & down[c + w]) != 0)
+                        overlap = true;
+                    up[from + w] |= down[c + w];
+                }
+                parts++;
+            }
+            if(parts > 1 && overlap)
+                upDups[index]++;
+
+            if(parent == root)
+                continue;
+
+            int dups = downDups[index] + upDups[index];
+            for(int w = 0; w < words; ++w){
+                if((down[from + w] & up[from + w]) != 0){
+                    dups++;
+                    break;
+                }
+            }
+            if(dups < bestDups){
+                bestDups = dups;
+                best = index;
+            }
+        }
 
+        if(best != -1){
+            rootAtEdgeAbove(nodes.get(best));
+            topSort();
+        }
     }
     
     
@@ -367,97 +600,229 @@ public class Tree {
 
     
 
-    private ArrayList<Integer> getChildrens(TreeNode node, Map<String, TreeNode> triPartitionsMap){
-        if(node.isLeaf()){
-            ArrayList<Integer> arr = new ArrayList<>();
-            arr.add(node.taxon.id);
-            return arr;
-        }
-        ArrayList<ArrayList<Integer>> reachableFromChilds = new ArrayList<>();
-        for(var child : node.childs){
-            reachableFromChilds.add(getChildrens(child, triPartitionsMap));
+    // a tripartition of an internal node is the multiset of taxa below each child together with
+    // the set of the other taxa of the tree. nodes are keyed by a fingerprint that adds up the
+    // mixed fingerprints of the parts, so the order of the parts does not matter.
+    // the taxa below a node are a contiguous range of the leaves in post order, so a node costs
+    // about its subtree size and taxa are only compared when fingerprints match
+    public void calculateFrequencies(TriPartitions triPartitions){
+        int taxaCount = this.taxaMap.size();
+        int n = nodes.size();
+
+        int[] leafIds = new int[n];
+        // leaves below a node are leafIds[firstLeaf, endLeaf)
+        int[] firstLeaf = new int[n];
+        int[] endLeaf = new int[n];
+        long[] fingerprintHi = new long[n];
+        long[] fingerprintLo = new long[n];
+
+        boolean[] present = new boolean[taxaCount];
+        long presentHi = 0, presentLo = 0;
+        for(int id : this.taxaInTreeIds){
+            present[id] = true;
+            presentHi += Utility.taxonKeyHi(id);
+            presentLo += Utility.taxonKeyLo(id);
         }
+        int presentCount = this.taxaInTreeIds.size();
 
-        // flag all elems in left and right partition to find elems of third partition
-        boolean[] mark = new boolean[this.taxaMap.size()];
+        // stamp[id] == index + 1 if the taxon is below the node being visited
+        int[] stamp = new int[taxaCount];
+        int[] counts = new int[taxaCount];
+        int leaves = 0;
 
-        for(var childTaxa : reachableFromChilds){
-            for(var x : childTaxa){
-                mark[x] = true;
+        for(int index : postOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf()){
+                int id = node.taxon.id;
+                firstLeaf[index] = leaves;
+                leafIds[leaves++] = id;
+                endLeaf[index] = leaves;
+                fingerprintHi[index] = Utility.taxonKeyHi(id);
+                fingerprintLo[index] = Utility.taxonKeyLo(id);
+                continue;
             }
-        }
-        
-        ArrayList<Integer> arr = new ArrayList<>();
-        for(int i = 0; i < this.taxaMap.size(); ++i){
-            if(!mark[i] && isTaxonPresent(i)){
-                arr.add(i);
+
+            int k = node.childs.size();
+            firstLeaf[index] = k > 0 ? firstLeaf[node.childs.get(0).index] : leaves;
+            endLeaf[index] = leaves;
+
+            long[] partFingerprints = new long[2 * (k + 1)];
+            for(int c = 0; c < k; ++c){
+                int child = node.childs.get(c).index;
+                partFingerprints[2 * c] = fingerprintHi[child];
+                partFingerprints[2 * c + 1] = fingerprintLo[child];
+                fingerprintHi[index] += fingerprintHi[child];
+                fingerprintLo[index] += fingerprintLo[child];
             }
-            // else if(!isTaxonPresent(i)){
-            //     System.out.println("No. " + i + " is not present in tree");
-            // }
-        }
 
-        reachableFromChilds.add(arr);
+            int mark = index + 1;
+            long setHi = 0, setLo = 0;
+            int distinct = 0;
+            for(int l = firstLeaf[index]; l < endLeaf[index]; ++l){
+                int id = leafIds[l];
+                if(stamp[id] != mark){
+                    stamp[id] = mark;
+                    setHi += Utility.taxonKeyHi(id);
+                    setLo += Utility.taxonKeyLo(id);
+                    distinct++;
+                }
+            }
+            partFingerprints[2 * k] = presentHi - setHi;
+            partFingerprints[2 * k + 1] = presentLo - setLo;
+            int restCount = presentCount - distinct;
+
+            long keyHi = 0, keyLo = 0;
+            for(int j = 0; j <= k; ++j){
+                long h = partFingerprints[2 * j], l = partFingerprints[2 * j + 1];
+                keyHi += Utility.mix64(h ^ Long.rotateLeft(l, 29));
+                keyLo += Utility.mix64(l + h * 0x9E3779B97F4A7C15L);
+            }
 
-        String[] partitionStrings = new String[reachableFromChilds.size()];
+            int found = -1;
+            for(int slot = triPartitions.index.find(keyHi, keyLo); slot != -1; slot = triPartitions.index.findNext(keyHi, keyLo, slot)){
+                int id = triPartitions.index.valueAt(slot);
+                if(sameTriPartition(node, partFingerprints, triPartitions.partFingerprints.get(id), triPartitions.parts.get(id),
+                        leafIds, firstLeaf, endLeaf, present, stamp, mark, restCount, counts)){
+                    found = id;
+                    break;
+                }
+            }
 
-        for(var x : reachableFromChilds){
-            x.sort((a, b) -> a - b);
+            if(found != -1){
+                triPartitions.nodes.get(found).frequency++;
+                node.frequency = 0;
+            }
+            else{
+                node.frequency = 1;
+                int[][] parts = new int[k + 1][];
+                for(int c = 0; c < k; ++c){
+                    int child = node.childs.get(c).index;
+                    parts[c] = Arrays.copyOfRange(leafIds, firstLeaf[child], endLeaf[child]);
+                }
+                int[] rest = new int[restCount];
+                int r = 0;
+                for(int id : this.taxaInTreeIds){
+                    if(stamp[id] != mark)
+                        rest[r++] = id;
+                }
+                parts[k] = rest;
+                triPartitions.add(keyHi, keyLo, node, partFingerprints, parts);
+            }
         }
+    }
 
-
-        for(int i = 0; i < reachableFromChilds.size(); ++i){
-            var sb = new StringBuilder();
-            reachableFromChilds.get(i).forEach(s -> sb.append(s + '-') );
-            partitionStrings[i] = sb.toString();
-        }
-        
-        Arrays.sort(partitionStrings);
-        // String key;
-        StringBuilder sb = new StringBuilder();
-        for(var x : partitionStrings){
-            sb.append(x + '|');
+    // exact check of a fingerprint match, parts are paired up by their own fingerprints
+    private boolean sameTriPartition(TreeNode node, long[] partFingerprints, long[] storedFingerprints, int[][] storedParts,
+            int[] leafIds, int[] firstLeaf, int[] endLeaf, boolean[] present, int[] stamp, int mark, int restCount, int[] counts){
+        if(storedFingerprints.length != partFingerprints.length)
+            return false;
+        int k = node.childs.size();
+        boolean[] matched = new boolean[k + 1];
+        for(int j = 0; j <= k; ++j){
+            boolean ok = false;
+            for(int s = 0; s <= k && !ok; ++s){
+                if(matched[s] || storedFingerprints[2 * s] != partFingerprints[2 * j] || storedFingerprints[2 * s + 1] != partFingerprints[2 * j + 1])
+                    continue;
+                if(j < k){
+                    int child = node.childs.get(j).index;
+                    ok = sameMultiset(storedParts[s], leafIds, firstLeaf[child], endLeaf[child], counts);
+                }
+                else{
+                    ok = sameRest(storedParts[s], present, stamp, mark, restCount, counts);
+                }
+                matched[s] = ok;
+            }
+            if(!ok)
+                return false;
         }
+        return true;
+    }
 
-        String key = sb.toString();
-
-        if(triPartitionsMap.containsKey(key)){
-            triPartitionsMap.get(key).frequency++;
-            node.frequency = 0;
-        }
-        else{
-            node.frequency = 1;
-            triPartitionsMap.put(key, node);
+    private static boolean sameMultiset(int[] stored, int[] leafIds, int from, int to, int[] counts){
+        if(stored.length != to - from)
+            return false;
+        for(int x : stored)
+            counts[x]++;
+        boolean same = true;
+        for(int l = from; l < to; ++l){
+            if(--counts[leafIds[l]] < 0)
+                same = false;
         }
-        reachableFromChilds.remove(reachableFromChilds.size() - 1);
-        
-        arr = new ArrayList<>();
-        for(var childTaxa : reachableFromChilds){
-            arr.addAll(childTaxa);
-        }
-        return arr;
+        for(int x : stored)
+            counts[x] = 0;
+        for(int l = from; l < to; ++l)
+            counts[leafIds[l]] = 0;
+        return same;
     }
 
-    public void calculateFrequencies(Map<String, TreeNode> triPartitions){
-        getChildrens(root, triPartitions);
+    // the rest part is the set of present taxa not stamped with mark
+    private static boolean sameRest(int[] stored, boolean[] present, int[] stamp, int mark, int restCount, int[] counts){
+        if(stored.length != restCount)
+            return false;
+        boolean same = true;
+        for(int x : stored){
+            if(!present[x] || stamp[x] == mark || counts[x]++ > 0)
+                same = false;
+        }
+        for(int x : stored)
+            counts[x] = 0;
+        return same;
     }
 
-    private void topSortUtil(TreeNode node, ArrayList<TreeNode> topSort){
-        if(node.isLeaf()){
+    public void topSort(){
+        int[] order = postOrder(root);
+        ArrayList<TreeNode> topSort = new ArrayList<>(order.length);
+        for(int index : order){
+            topSort.add(nodes.get(index));
         }
-        else{
-            for(var x : node.childs){
-                topSortUtil(x, topSort);
+        this.topSortedNodes = topSort;
+    }
+
+    // the tree written in pre order with the children of every node ordered by a hash of their subtrees,
+    // so trees that differ only in the order of children get the same form.
+    // a leaf is written as its taxon id, an internal node with k children as -1 - 2k, or -2 - 2k if it is a duplication
+    public int[] canonicalForm(){
+        int n = nodes.size();
+        long[] hash = new long[n];
+        for(int index : postOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf()){
+                hash[index] = Utility.taxonKeyHi(node.taxon.id);
+                continue;
+            }
+            long h = node.dupplicationNode ? 0x5851F42D4C957F2DL : 0;
+            for(var child : node.childs){
+                h += hash[child.index];
             }
+            hash[index] = Utility.mix64(h + node.childs.size());
         }
-        topSort.add(node);
 
-    }
-
-    public void topSort(){
-        ArrayList<TreeNode> topSort = new ArrayList<>();
-        topSortUtil(root, topSort);
-        this.topSortedNodes = topSort;
+        int[] form = new int[n];
+        int size = 0;
+        int[] stack = new int[n];
+        int top = 0;
+        stack[top++] = root.index;
+        while(top > 0){
+            TreeNode node = nodes.get(stack[--top]);
+            if(node.isLeaf()){
+                form[size++] = node.taxon.id;
+                continue;
+            }
+            int k = node.childs.size();
+            form[size++] = -1 - 2 * k - (node.dupplicationNode ? 1 : 0);
+            // pushed largest hash first, so children come out in increasing hash order
+            int start = top;
+            for(var child : node.childs){
+                int c = child.index;
+                int j = top++;
+                while(j > start && hash[stack[j - 1]] < hash[c]){
+                    stack[j] = stack[j - 1];
+                    --j;
+                }
+                stack[j] = c;
+            }
+        }
+        return form;
     }
 
     public boolean checkIfNonBinary(){
@@ -468,33 +833,88 @@ public class Tree {
         return false;
     }
 
-    public boolean[] tagUtil(TreeNode node){
-        
-        boolean[] taxaInSubtree = new boolean[this.taxaMap.size()];
+    // words of a bitset that holds the taxon ids of the leaves, which need not be the final ids yet
+    private int taxonWords(){
+        int max = -1;
+        for(var node : nodes){
+            if(node.isLeaf())
+                max = Math.max(max, node.taxon.id);
+        }
+        return (max + 64) >>> 6;
+    }
 
-        if(node.isLeaf()){
-            taxaInSubtree[node.taxon.id] = true;
-            return taxaInSubtree;
+    // marks a node as duplication if the taxa of two of its children overlap.
+    // a node is one exactly when it is the lowest common ancestor of two leaves of a taxon that are next to each other
+    // in leaf order, and the lca of leaves i < j is the shallowest lca of adjacent leaves k, k + 1 for i <= k < j.
+    // these range minima are answered from a stack of suffix minima, so tagging takes O(n log n)
+    public void tag(){
+        int n = nodes.size();
+        int[] parentOf = new int[n];
+        int[] depth = new int[n];
+        parentOf[root.index] = -1;
+        for(int index : preOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf())
+                continue;
+            for(var child : node.childs){
+                parentOf[child.index] = index;
+                depth[child.index] = depth[index] + 1;
+            }
         }
-        for(var child : node.childs){
-            var childTaxa = tagUtil(child);
-            for(int i = 0; i < this.taxaMap.size(); ++i){
-                if(childTaxa[i]){
-                    if(taxaInSubtree[i]){
-                        node.dupplicationNode = true;
-                    }
-                    taxaInSubtree[i] = true;
-                }
+
+        int[] leaves = new int[n];
+        // number of leaves up to and including the subtree of a node in post order
+        int[] leafEnd = new int[n];
+        int leafCount = 0, maxId = -1;
+        for(int index : postOrder(root)){
+            TreeNode node = nodes.get(index);
+            if(node.isLeaf()){
+                leaves[leafCount++] = index;
+                maxId = Math.max(maxId, node.taxon.id);
             }
+            leafEnd[index] = leafCount;
         }
-        return taxaInSubtree;
 
-    }
+        // lca of leaves k and k + 1, every node is climbed past only after its last leaf
+        int[] adjacent = new int[Math.max(leafCount - 1, 0)];
+        for(int k = 0; k < leafCount - 1; ++k){
+            int u = leaves[k];
+            while(leafEnd[u] <= k + 1){
+                u = parentOf[u];
+            }
+            adjacent[k] = u;
+        }
 
-    public void tag(){
-        tagUtil(root);
-    }
+        int[] last = new int[maxId + 1];
+        Arrays.fill(last, -1);
+        // positions in adjacent whose depths increase from the bottom, each the minimum of the range up to the current leaf
+        int[] stack = new int[leafCount];
+        int top = -1;
+        for(int j = 0; j < leafCount; ++j){
+            int id = nodes.get(leaves[j]).taxon.id;
+            int i = last[id];
+            if(i >= 0){
+                int lo = 0, hi = top;
+                while(lo < hi){
+                    int mid = (lo + hi) >>> 1;
+                    if(stack[mid] >= i)
+                        hi = mid;
+                    else
+                        lo = mid + 1;
+                }
+                nodes.get(adjacent[stack[lo]]).dupplicationNode = true;
+            }
+            last[id] = j;
 
+            if(j < leafCount - 1){
+                int d = depth[adjacent[j]];
+                while(top >= 0 && depth[adjacent[stack[top]]] >= d){
+                    --top;
+                }
+                stack[++top] = j;
+            }
+        }
+    }
 
     private ArrayList<Pair<Integer, Integer>> getPairs(boolean[] c){
         ArrayList<Pair<Integer, Integer>> pairs = new ArrayList<>();
@@ -599,10 +1019,6 @@ public class Tree {
     
             }
         }
-
-        for(var x : node.childs){
-            generateQuartetsUtil(x);
-        }
     } 
 
     public void generateQuartets(QuartestsList quartestsList){
@@ -620,14 +1036,19 @@ public class Tree {
 
         this.qList = quartestsList;
 
-        calcRealTaxaInSubTree(root);
+        for(int index : postOrder(root)){
+            calcRealTaxaInSubTree(nodes.get(index));
+        }
 
-        generateQuartetsUtil(root);
+        for(int index : preOrder(root)){
+            generateQuartetsUtil(nodes.get(index));
+        }
 
 
 
     }
 
+    // children must be done before their parent
     private boolean[] calcRealTaxaInSubTree(TreeNode node){
 
         boolean[] taxaInSubtree = new boolean[this.taxaMap.size()];
@@ -638,8 +1059,8 @@ public class Tree {
             return taxaInSubtree;
         }
         
-        boolean[] c0 = calcRealTaxaInSubTree(node.childs.get(0));
-        boolean[] c1 = calcRealTaxaInSubTree(node.childs.get(1));
+        boolean[] c0 = node.childs.get(0).realTaxaInSubtree;
+        boolean[] c1 = node.childs.get(1).realTaxaInSubtree;
 
         for(int i = 0; i < this.taxaMap.size(); ++i){
             taxaInSubtree[i] = c0[i] || c1[i];
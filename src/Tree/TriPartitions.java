@@ -0,0 +1,38 @@
+package src.Tree;
+
+import java.util.ArrayList;
+
+import src.Utility.LongPairIntMap;
+
+// Distinct tripartitions of the internal nodes of all gene trees, keyed by a 128 bit fingerprint.
+// A tripartition is the multiset of child taxa of every child plus the set of the remaining taxa of the tree.
+// The parts of every distinct tripartition are kept so that a fingerprint match can be checked exactly.
+public class TriPartitions {
+
+    // first node seen with each tripartition, its frequency counts all of them
+    public ArrayList<TreeNode> nodes;
+    ArrayList<long[]> partFingerprints;
+    ArrayList<int[][]> parts;
+    LongPairIntMap index;
+
+    public TriPartitions() {
+        this.nodes = new ArrayList<>();
+        this.partFingerprints = new ArrayList<>();
+        this.parts = new ArrayList<>();
+        this.index = new LongPairIntMap();
+    }
+
+    // partFingerprints holds hi, lo pairs of the parts, in the order of parts
+    int add(long hi, long lo, TreeNode node, long[] partFingerprints, int[][] parts) {
+        int id = this.nodes.size();
+        this.nodes.add(node);
+        this.partFingerprints.add(partFingerprints);
+        this.parts.add(parts);
+        this.index.add(hi, lo, id);
+        return id;
+    }
+
+    public int size() {
+        return this.nodes.size();
+    }
+}
@@ -1,5 +1,7 @@
 package src;
 
+import java.util.Arrays;
+
 public class Utility {
     public static void addArrayToFirst(int[] a, int[] b) {
         int n = a.length;
@@ -43,6 +45,132 @@ public class Utility {
         return (n * (n - 1)) / 2;
     }
 
+    // splitmix64 finalizer
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    // two independent 64 bit keys per taxon. the fingerprint of a multiset of taxa is the sum of
+    // the keys of its members, so the fingerprint of a union of parts is the sum of their fingerprints
+    public static long taxonKeyHi(int id) {
+        return mix64(id * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L);
+    }
+
+    public static long taxonKeyLo(int id) {
+        return mix64(id * 0xC2B2AE3D27D4EB4FL + 0x165667B19E3779F9L);
+    }
+
+    // open addressing map from a 128 bit key to an int. a key may be added more than once,
+    // so that entries whose fingerprints collide can be told apart by the caller
+    public static class LongPairIntMap {
+        private long[] hi;
+        private long[] lo;
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        public LongPairIntMap() {
+            this.hi = new long[16];
+            this.lo = new long[16];
+            this.values = new int[16];
+            this.used = new boolean[16];
+            this.size = 0;
+        }
+
+        private int slotOf(long h, long l) {
+            return (int) mix64(h ^ (l * 0x9E3779B97F4A7C15L)) & (used.length - 1);
+        }
+
+        // first slot holding the key, or -1
+        public int find(long h, long l) {
+            return probe(h, l, slotOf(h, l));
+        }
+
+        // next slot after slot holding the same key, or -1
+        public int findNext(long h, long l, int slot) {
+            return probe(h, l, (slot + 1) & (used.length - 1));
+        }
+
+        private int probe(long h, long l, int slot) {
+            int mask = used.length - 1;
+            while (used[slot]) {
+                if (hi[slot] == h && lo[slot] == l)
+                    return slot;
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        public int valueAt(int slot) {
+            return values[slot];
+        }
+
+        public void add(long h, long l, int value) {
+            if (2 * (size + 1) > used.length) {
+                grow();
+            }
+            int mask = used.length - 1;
+            int slot = slotOf(h, l);
+            while (used[slot]) {
+                slot = (slot + 1) & mask;
+            }
+            used[slot] = true;
+            hi[slot] = h;
+            lo[slot] = l;
+            values[slot] = value;
+            size++;
+        }
+
+        private void grow() {
+            long[] oldHi = hi, oldLo = lo;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            int capacity = 2 * oldUsed.length;
+            hi = new long[capacity];
+            lo = new long[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldUsed.length; ++i) {
+                if (oldUsed[i])
+                    add(oldHi[i], oldLo[i], oldValues[i]);
+            }
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    // marks on the ints below a size that are all cleared at once by starting a new epoch.
+    // an int is marked in the current epoch when its stamp is the epoch
+    public static class EpochMarks {
+        private final int[] stamps;
+        private int epoch;
+
+        public EpochMarks(int size) {
+            this.stamps = new int[size];
+            this.epoch = 0;
+        }
+
+        public void newEpoch() {
+            if (++epoch == 0) {
+                Arrays.fill(stamps, 0);
+                epoch = 1;
+            }
+        }
+
+        // true the first time i is marked in the epoch
+        public boolean mark(int i) {
+            if (stamps[i] == epoch)
+                return false;
+            stamps[i] = epoch;
+            return true;
+        }
+    }
+
     public static class Pair<F, S> {
         public F first;
         public S second;